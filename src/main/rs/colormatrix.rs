@@ -0,0 +1,20 @@
+/*
+ * Applies a 4x5 color matrix, as built by ColorPipeline, to every pixel.
+ */
+
+#pragma version(1)
+#pragma rs java_package_name(quickutils.core)
+
+rs_matrix4x4 gMatrix;
+float4 gOffset;
+
+uchar4 __attribute__((kernel)) colormatrix(uchar4 in) {
+    float4 pixel = convert_float4(in);
+    // Allocations hold premultiplied pixels, the matrix works on straight colors
+    if (pixel.a > 0.f && pixel.a < 255.f) {
+        pixel.rgb = pixel.rgb * 255.f / pixel.a;
+    }
+    float4 res = clamp(rsMatrixMultiply(&gMatrix, pixel) + gOffset, 0.f, 255.f);
+    res.rgb = res.rgb * res.a / 255.f;
+    return convert_uchar4(res + 0.5f);
+}
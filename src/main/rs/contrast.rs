@@ -31,7 +31,14 @@ void contrast(const uchar4 *in, uchar4 *out)
     out->g = rsClamp((int)(brightM * in->g + brightC), 0, 255);
     out->b = rsClamp((int)(brightM * in->b + brightC), 0, 255);
 #else
-    float3 v = convert_float3(in->rgb) * brightM + brightC;
-    out->rgb = convert_uchar3(clamp(v, 0.f, 255.f));
+    // Bitmap pixels are premultiplied: scale the color itself, then premultiply it back
+    out->a = in->a;
+    if (in->a == 0) {
+        out->rgb = 0;
+        return;
+    }
+    float alpha = in->a / 255.f;
+    float3 v = convert_float3(in->rgb) / alpha * brightM + brightC;
+    out->rgb = convert_uchar3(clamp(v, 0.f, 255.f) * alpha + 0.5f);
 #endif
 }
\ No newline at end of file
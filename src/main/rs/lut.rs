@@ -0,0 +1,45 @@
+/*
+ * Applies a ColorLut to every pixel: per-channel curves, then an optional 3D cube with trilinear interpolation.
+ */
+
+#pragma version(1)
+#pragma rs java_package_name(quickutils.core)
+
+// 256 entries, the curve of each channel in r, g and b
+rs_allocation gCurves;
+// gCubeSize^3 entries, red along x, green along y, blue along z
+rs_allocation gCube;
+// 0 when there is no cube
+int gCubeSize;
+
+static float3 cubeAt(int3 i) {
+    return convert_float3(rsGetElementAt_uchar4(gCube, i.x, i.y, i.z).rgb);
+}
+
+uchar4 __attribute__((kernel)) lut(uchar4 in) {
+    float4 pixel = convert_float4(in);
+    // Allocations hold premultiplied pixels, the tables work on straight colors
+    if (pixel.a > 0.f && pixel.a < 255.f) {
+        pixel.rgb = clamp(pixel.rgb * 255.f / pixel.a + 0.5f, 0.f, 255.f);
+    }
+    uchar3 color = convert_uchar3(pixel.rgb);
+    color.r = rsGetElementAt_uchar4(gCurves, color.r).r;
+    color.g = rsGetElementAt_uchar4(gCurves, color.g).g;
+    color.b = rsGetElementAt_uchar4(gCurves, color.b).b;
+    float3 res = convert_float3(color);
+    if (gCubeSize > 1) {
+        float3 position = res * ((gCubeSize - 1) / 255.f);
+        int3 i0 = min(convert_int3(position), gCubeSize - 2);
+        float3 t = position - convert_float3(i0);
+        float3 c00 = mix(cubeAt(i0), cubeAt(i0 + (int3){1, 0, 0}), t.x);
+        float3 c10 = mix(cubeAt(i0 + (int3){0, 1, 0}), cubeAt(i0 + (int3){1, 1, 0}), t.x);
+        float3 c01 = mix(cubeAt(i0 + (int3){0, 0, 1}), cubeAt(i0 + (int3){1, 0, 1}), t.x);
+        float3 c11 = mix(cubeAt(i0 + (int3){0, 1, 1}), cubeAt(i0 + (int3){1, 1, 1}), t.x);
+        res = mix(mix(c00, c10, t.y), mix(c01, c11, t.y), t.z);
+    }
+    res = res * pixel.a / 255.f;
+    uchar4 out;
+    out.rgb = convert_uchar3(clamp(res + 0.5f, 0.f, 255.f));
+    out.a = in.a;
+    return out;
+}
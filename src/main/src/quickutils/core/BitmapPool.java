@@ -0,0 +1,85 @@
+package quickutils.core;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+
+
+/**
+ * Pool of mutable bitmaps, to reuse the destination of repeated decodes (thumbnails of a list...) instead of
+ * allocating a new bitmap each time.<br/>
+ * Bitmaps are matched on their exact dimensions and config. The pool holds at most the given number of bytes, the
+ * least recently returned bitmaps are recycled first. It is thread-safe.
+ */
+public class BitmapPool {
+
+	private final int					maxBytes;
+	private int							size;
+	/** Most recently returned first. */
+	private final LinkedList<Bitmap>	bitmaps	= new LinkedList<Bitmap>();
+
+	/**
+	 * @param maxBytes
+	 *            Maximum number of bytes of the bitmaps kept by the pool.
+	 */
+	public BitmapPool(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return A cleared mutable bitmap of the given dimensions and config, taken from the pool if possible, new otherwise.
+	 */
+	public Bitmap get(int width, int height, Bitmap.Config config) {
+		synchronized (this) {
+			for (Iterator<Bitmap> it = bitmaps.iterator(); it.hasNext();) {
+				Bitmap bitmap = it.next();
+				if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+					it.remove();
+					size -= getByteCount(bitmap);
+					bitmap.eraseColor(0);
+					return bitmap;
+				}
+			}
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Gives a bitmap back to the pool. It must not be used by the caller anymore.<br/>
+	 * Immutable bitmaps and bitmaps larger than the pool are recycled.
+	 */
+	public void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) return;
+		int bytes = getByteCount(bitmap);
+		if (!bitmap.isMutable() || bytes > maxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			bitmaps.addFirst(bitmap);
+			size += bytes;
+			while (size > maxBytes) {
+				Bitmap evicted = bitmaps.removeLast();
+				size -= getByteCount(evicted);
+				evicted.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Recycles all the bitmaps of the pool.
+	 */
+	public synchronized void clear() {
+		for (Bitmap bitmap : bitmaps) {
+			bitmap.recycle();
+		}
+		bitmaps.clear();
+		size = 0;
+	}
+
+	private static int getByteCount(Bitmap bitmap) {
+		// Bitmap#getByteCount is API 12
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,225 @@
+package quickutils.core;
+
+/**
+ * Encodes images into compact <a href="https://blurha.sh">BlurHash</a> strings (20 to 30 characters for usual component
+ * counts) and decodes them back into blurry placeholders, in pure Java.<br/>
+ * The hash holds the average color and the lowest frequencies of the image's DCT, so a placeholder can be shown from
+ * data shipped with a list without any file I/O. Strings are compatible with the other BlurHash implementations.
+ */
+public final class BlurHash {
+
+	private static final String	CHARACTERS		= "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+	/**
+	 * Precision of {@link #LINEAR_TO_SRGB}, used for the decoded pixels, which may differ by 1 from the exact
+	 * conversion near black. The encoded average color is converted exactly, so that hashes match the other
+	 * implementations.
+	 */
+	private static final int	LINEAR_STEPS	= 4096;
+	private static final float[]	SRGB_TO_LINEAR	= new float[256];
+	private static final byte[]	LINEAR_TO_SRGB	= new byte[LINEAR_STEPS + 1];
+	static {
+		for (int i = 0; i < 256; i++) {
+			double v = i / 255.0;
+			SRGB_TO_LINEAR[i] = (float) (v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4));
+		}
+		for (int i = 0; i <= LINEAR_STEPS; i++) {
+			double v = (double) i / LINEAR_STEPS;
+			double srgb = v <= 0.0031308 ? v * 12.92 : 1.055 * Math.pow(v, 1 / 2.4) - 0.055;
+			LINEAR_TO_SRGB[i] = (byte) (int) (srgb * 255 + 0.5);
+		}
+	}
+
+	private BlurHash() {}
+
+	/**
+	 * Encodes ARGB pixels. Small inputs (e.g. 32x32) give the same hash as full size images for a fraction of the cost.
+	 *
+	 * @param pixels
+	 *            The ARGB pixels, alpha is ignored.
+	 * @param width
+	 *            Width of the image.
+	 * @param height
+	 *            Height of the image.
+	 * @param componentsX
+	 *            Number of horizontal frequencies 1..9, 4 is usual.
+	 * @param componentsY
+	 *            Number of vertical frequencies 1..9, 3 is usual.
+	 * @return The hash, {@code 4 + 2 * componentsX * componentsY} characters.
+	 */
+	public static String encode(int[] pixels, int width, int height, int componentsX, int componentsY) {
+		if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+			throw new IllegalArgumentException("Components must be in 1..9: " + componentsX + "x" + componentsY);
+		}
+		float[] cosX = cosines(componentsX, width);
+		float[] cosY = cosines(componentsY, height);
+		// Linear color of each pixel, computed once instead of once per component
+		float[] linear = new float[width * height * 3];
+		for (int i = 0, j = 0; i < width * height; i++) {
+			int color = pixels[i];
+			linear[j++] = SRGB_TO_LINEAR[(color >> 16) & 0xff];
+			linear[j++] = SRGB_TO_LINEAR[(color >> 8) & 0xff];
+			linear[j++] = SRGB_TO_LINEAR[color & 0xff];
+		}
+		float[] factors = new float[componentsX * componentsY * 3];
+		float scale = 1f / (width * height);
+		for (int j = 0; j < componentsY; j++) {
+			for (int i = 0; i < componentsX; i++) {
+				float r = 0, g = 0, b = 0;
+				for (int y = 0; y < height; y++) {
+					float basisY = cosY[j * height + y];
+					for (int x = 0, p = y * width * 3; x < width; x++, p += 3) {
+						float basis = basisY * cosX[i * width + x];
+						r += basis * linear[p];
+						g += basis * linear[p + 1];
+						b += basis * linear[p + 2];
+					}
+				}
+				float normalisation = (i == 0 && j == 0 ? 1 : 2) * scale;
+				int index = (j * componentsX + i) * 3;
+				factors[index] = r * normalisation;
+				factors[index + 1] = g * normalisation;
+				factors[index + 2] = b * normalisation;
+			}
+		}
+		StringBuilder res = new StringBuilder(4 + 2 * componentsX * componentsY);
+		encode83(res, (componentsX - 1) + (componentsY - 1) * 9, 1);
+		float maximumValue = 1;
+		if (factors.length > 3) {
+			float actualMaximum = 0;
+			for (int i = 3; i < factors.length; i++) {
+				actualMaximum = Math.max(actualMaximum, Math.abs(factors[i]));
+			}
+			int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+			maximumValue = (quantisedMaximum + 1) / 166f;
+			encode83(res, quantisedMaximum, 1);
+		} else {
+			encode83(res, 0, 1);
+		}
+		encode83(res, (toSrgbExact(factors[0]) << 16) | (toSrgbExact(factors[1]) << 8) | toSrgbExact(factors[2]), 4);
+		for (int i = 3; i < factors.length; i += 3) {
+			int value = quantiseAc(factors[i], maximumValue) * 19 * 19 + quantiseAc(factors[i + 1], maximumValue) * 19 + quantiseAc(factors[i + 2], maximumValue);
+			encode83(res, value, 2);
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Decodes a hash into opaque ARGB pixels.
+	 *
+	 * @param hash
+	 *            The hash, as returned by {@link #encode(int[], int, int, int, int)}.
+	 * @param width
+	 *            Width of the placeholder, small sizes (e.g. 32x32) are enough as it is blurry anyway.
+	 * @param height
+	 *            Height of the placeholder.
+	 * @param punch
+	 *            Contrast of the placeholder, 1 is default.
+	 * @param pixels
+	 *            Receives the {@code width * height} pixels, or {@code null} to allocate them.
+	 * @return The pixels.
+	 * @throws IllegalArgumentException
+	 *             If the hash is not valid.
+	 */
+	public static int[] decode(String hash, int width, int height, float punch, int[] pixels) {
+		if (hash == null || hash.length() < 6) throw new IllegalArgumentException("Invalid blur hash: " + hash);
+		int sizeFlag = decode83(hash, 0, 1);
+		int componentsX = sizeFlag % 9 + 1;
+		int componentsY = sizeFlag / 9 + 1;
+		if (hash.length() != 4 + 2 * componentsX * componentsY) throw new IllegalArgumentException("Invalid blur hash length: " + hash);
+		float maximumValue = (decode83(hash, 1, 1) + 1) / 166f * punch;
+		float[] colors = new float[componentsX * componentsY * 3];
+		int dc = decode83(hash, 2, 4);
+		colors[0] = SRGB_TO_LINEAR[(dc >> 16) & 0xff];
+		colors[1] = SRGB_TO_LINEAR[(dc >> 8) & 0xff];
+		colors[2] = SRGB_TO_LINEAR[dc & 0xff];
+		for (int i = 1; i < componentsX * componentsY; i++) {
+			int value = decode83(hash, 4 + i * 2, 2);
+			colors[i * 3] = unquantiseAc(value / (19 * 19), maximumValue);
+			colors[i * 3 + 1] = unquantiseAc((value / 19) % 19, maximumValue);
+			colors[i * 3 + 2] = unquantiseAc(value % 19, maximumValue);
+		}
+		float[] cosX = cosines(componentsX, width);
+		float[] cosY = cosines(componentsY, height);
+		if (pixels == null) {
+			pixels = new int[width * height];
+		}
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				float r = 0, g = 0, b = 0;
+				for (int j = 0; j < componentsY; j++) {
+					float basisY = cosY[j * height + y];
+					for (int i = 0; i < componentsX; i++) {
+						float basis = basisY * cosX[i * width + x];
+						int index = (j * componentsX + i) * 3;
+						r += colors[index] * basis;
+						g += colors[index + 1] * basis;
+						b += colors[index + 2] * basis;
+					}
+				}
+				pixels[y * width + x] = 0xff000000 | (toSrgb(r) << 16) | (toSrgb(g) << 8) | toSrgb(b);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * @return {@code cos(PI * component * position / size)} for each component and position, component major.
+	 */
+	private static float[] cosines(int components, int size) {
+		float[] res = new float[components * size];
+		for (int c = 0; c < components; c++) {
+			for (int p = 0; p < size; p++) {
+				res[c * size + p] = (float) Math.cos(Math.PI * c * p / size);
+			}
+		}
+		return res;
+	}
+
+	private static int toSrgb(float linear) {
+		int index = (int) (linear * LINEAR_STEPS + 0.5f);
+		if (index <= 0) return 0;
+		if (index >= LINEAR_STEPS) return 255;
+		return LINEAR_TO_SRGB[index] & 0xff;
+	}
+
+	/**
+	 * Same as {@link #toSrgb(float)} without the table, as computed by the reference implementation.
+	 */
+	private static int toSrgbExact(float linear) {
+		double v = Math.max(0, Math.min(1, linear));
+		double srgb = v <= 0.0031308 ? v * 12.92 : 1.055 * Math.pow(v, 1 / 2.4) - 0.055;
+		return (int) (srgb * 255 + 0.5);
+	}
+
+	private static int quantiseAc(float value, float maximumValue) {
+		double normalized = value / maximumValue;
+		double signPow = Math.copySign(Math.sqrt(Math.abs(normalized)), normalized);
+		return (int) Math.max(0, Math.min(18, Math.floor(signPow * 9 + 9.5)));
+	}
+
+	private static float unquantiseAc(int quantised, float maximumValue) {
+		float normalized = (quantised - 9) / 9f;
+		return Math.copySign(normalized * normalized, normalized) * maximumValue;
+	}
+
+	private static void encode83(StringBuilder builder, int value, int length) {
+		int divisor = 1;
+		for (int i = 1; i < length; i++) {
+			divisor *= 83;
+		}
+		for (int i = 0; i < length; i++) {
+			builder.append(CHARACTERS.charAt((value / divisor) % 83));
+			divisor /= 83;
+		}
+	}
+
+	private static int decode83(String string, int from, int length) {
+		int res = 0;
+		for (int i = from; i < from + length; i++) {
+			int digit = CHARACTERS.indexOf(string.charAt(i));
+			if (digit < 0) throw new IllegalArgumentException("Invalid blur hash character '" + string.charAt(i) + "': " + string);
+			res = res * 83 + digit;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,80 @@
+package quickutils.core;
+
+/**
+ * Clock read from a volatile field refreshed by a daemon thread, for hot paths that can use a time a few milliseconds
+ * old. The thread is started on first use, stops once the clock has not been read for {@link #IDLE_TIMEOUT}
+ * milliseconds or when interrupted, and is started again by the next read.
+ */
+final class CoarseClock {
+
+     /** Refresh period of the clock, in milliseconds. */
+     static final long               RESOLUTION   = 10;
+     /** Time without reads after which the thread stops, in milliseconds. */
+     static final long               IDLE_TIMEOUT = 1000;
+
+     private static volatile long    now;
+     private static volatile boolean started;
+     /** Set by the reads, cleared by the thread on each tick. */
+     private static volatile boolean read;
+
+     private CoarseClock () {
+     }
+
+     /**
+      * @return the current time in milliseconds, at most about {@link #RESOLUTION} milliseconds old
+      */
+     static long currentTimeMillis() {
+          if ( !started ) {
+               start();
+          }
+          if ( !read ) {
+               read = true;
+          }
+          return now;
+     }
+
+     private static synchronized void start() {
+          if ( started ) { return; }
+          now = System.currentTimeMillis();
+          read = true;
+          Thread ticker = new Thread("CoarseClock") {
+
+               @Override
+               public void run() {
+                    long idle = 0;
+                    while ( true ) {
+                         try {
+                              Thread.sleep(RESOLUTION);
+                         } catch (InterruptedException e) {
+                              stopTicking();
+                              return;
+                         }
+                         now = System.currentTimeMillis();
+                         if ( read ) {
+                              read = false;
+                              idle = 0;
+                         } else if ( (idle += RESOLUTION) >= IDLE_TIMEOUT && stopIfIdle() ) { return; }
+                    }
+               }
+          };
+          ticker.setDaemon(true);
+          ticker.start();
+          started = true;
+     }
+
+     /**
+      * Stops the ticking unless the clock was read since the last tick, under the lock of {@link #start()} so that a
+      * read racing with the stop starts a new thread.
+      *
+      * @return {@code true} if the thread must exit
+      */
+     private static synchronized boolean stopIfIdle() {
+          if ( read ) { return false; }
+          started = false;
+          return true;
+     }
+
+     private static synchronized void stopTicking() {
+          started = false;
+     }
+}
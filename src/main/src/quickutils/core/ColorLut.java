@@ -0,0 +1,297 @@
+package quickutils.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v8.renderscript.RSRuntimeException;
+
+
+/**
+ * Color grading by table lookups: a per-channel 1D curve (tone mapping, exposure, gamma...) followed by an optional 3D
+ * color cube (e.g. loaded from a {@code .cube} file), applied in a single pass.<br/>
+ * The tables are computed once, applying them costs a few lookups per pixel instead of per-pixel math like the
+ * {@code pow} of {@code contrast.rs}. LUTs are immutable and can be shared between threads.
+ */
+public class ColorLut {
+
+	/** Below this many pixels per band, the Java pass is not worth splitting across threads. */
+	private static final int	MIN_BAND	= 32 * 1024;
+
+	final byte[]				curves;
+	final int					cubeSize;
+	/** Cube entries as 0xRRGGBB, red varying fastest, then green, then blue. */
+	final int[]					cube;
+
+	// Position of each channel value in the cube: index of the lower entry and 8 bit fraction towards the next one
+	private final int[]			cubeIndex;
+	private final int[]			cubeFraction;
+
+	/**
+	 * @param red
+	 *            256 entries curve of the red channel
+	 * @param green
+	 *            256 entries curve of the green channel
+	 * @param blue
+	 *            256 entries curve of the blue channel
+	 * @param cubeSize
+	 *            number of entries per side of the cube, 0 for no cube
+	 * @param cube
+	 *            {@code cubeSize^3} entries as 0xRRGGBB, red varying fastest, or {@code null}
+	 */
+	ColorLut(int[] red, int[] green, int[] blue, int cubeSize, int[] cube) {
+		// Interleaved like an RGBA allocation, so that the kernel can use it as is
+		this.curves = new byte[256 * 4];
+		for (int i = 0; i < 256; i++) {
+			curves[i * 4] = (byte) clamp(red[i]);
+			curves[i * 4 + 1] = (byte) clamp(green[i]);
+			curves[i * 4 + 2] = (byte) clamp(blue[i]);
+			curves[i * 4 + 3] = (byte) 255;
+		}
+		this.cubeSize = cube == null ? 0 : cubeSize;
+		this.cube = cube;
+		if (this.cubeSize > 1) {
+			cubeIndex = new int[256];
+			cubeFraction = new int[256];
+			for (int i = 0; i < 256; i++) {
+				int position = i * (cubeSize - 1) * 256 / 255;
+				cubeIndex[i] = Math.min(cubeSize - 2, position >> 8);
+				cubeFraction[i] = position - (cubeIndex[i] << 8);
+			}
+		} else {
+			cubeIndex = null;
+			cubeFraction = null;
+		}
+	}
+
+	/**
+	 * @return A LUT applying the same curve to the three channels.
+	 */
+	public static ColorLut fromCurve(int[] curve) {
+		return new ColorLut(curve, curve, curve, 0, null);
+	}
+
+	/**
+	 * @return A LUT applying one curve per channel.
+	 */
+	public static ColorLut fromCurves(int[] red, int[] green, int[] blue) {
+		return new ColorLut(red, green, blue, 0, null);
+	}
+
+	/**
+	 * Same adjustment as {@code contrast.rs}: colors scaled by {@code 2^(value/100)} around 127, in float and rounded
+	 * like the kernel.
+	 */
+	public static ColorLut exposure(float value) {
+		float scale = (float) Math.pow(2, value / 100f);
+		float offset = 127f - scale * 127f;
+		int[] curve = new int[256];
+		for (int i = 0; i < 256; i++) {
+			curve[i] = Math.round(scale * i + offset);
+		}
+		return fromCurve(curve);
+	}
+
+	/**
+	 * @param gamma
+	 *            1 is default, more than 1 brightens the mid tones
+	 */
+	public static ColorLut gamma(float gamma) {
+		int[] curve = new int[256];
+		for (int i = 0; i < 256; i++) {
+			curve[i] = (int) Math.round(255 * Math.pow(i / 255.0, 1.0 / gamma));
+		}
+		return fromCurve(curve);
+	}
+
+	/**
+	 * Loads a 3D LUT from an Adobe/Resolve {@code .cube} file.<br/>
+	 * Only {@code LUT_3D_SIZE} tables with the default 0..1 domain are supported.
+	 *
+	 * @throws IOException
+	 *             If the file could not be read or is not a valid 3D cube.
+	 */
+	public static ColorLut loadCube(File cubeFile) throws IOException {
+		QUFactory.QLog.debug("loadCube cubeFile=" + cubeFile);
+		BufferedReader reader = new BufferedReader(new FileReader(cubeFile));
+		try {
+			int size = 0;
+			int[] cube = null;
+			int count = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.charAt(0) == '#') continue;
+				char first = line.charAt(0);
+				if (first == '-' || first == '.' || (first >= '0' && first <= '9')) {
+					if (cube == null) throw new IOException("Missing LUT_3D_SIZE in " + cubeFile);
+					if (count == cube.length) throw new IOException("Too many entries in " + cubeFile);
+					String[] values = line.split("\\s+");
+					if (values.length < 3) throw new IOException("Invalid entry '" + line + "' in " + cubeFile);
+					try {
+						int r = clamp(Math.round(Float.parseFloat(values[0]) * 255));
+						int g = clamp(Math.round(Float.parseFloat(values[1]) * 255));
+						int b = clamp(Math.round(Float.parseFloat(values[2]) * 255));
+						cube[count++] = (r << 16) | (g << 8) | b;
+					}
+					catch (NumberFormatException e) {
+						throw new IOException("Invalid entry '" + line + "' in " + cubeFile);
+					}
+				} else if (line.startsWith("LUT_3D_SIZE")) {
+					try {
+						size = Integer.parseInt(line.substring("LUT_3D_SIZE".length()).trim());
+					}
+					catch (NumberFormatException e) {
+						throw new IOException("Invalid LUT_3D_SIZE '" + line + "' in " + cubeFile);
+					}
+					if (size < 2 || size > 256) throw new IOException("Unsupported LUT_3D_SIZE " + size + " in " + cubeFile);
+					cube = new int[size * size * size];
+				} else if (line.startsWith("LUT_1D_SIZE")) {
+					throw new IOException("1D .cube files are not supported: " + cubeFile);
+				}
+				// TITLE, DOMAIN_MIN, DOMAIN_MAX... are ignored
+			}
+			if (cube == null || count != cube.length) throw new IOException("Incomplete cube in " + cubeFile);
+			return new ColorLut(IDENTITY, IDENTITY, IDENTITY, size, cube);
+		} finally {
+			SDcardUtils.closeSilently(reader);
+		}
+	}
+
+	private static final int[]	IDENTITY	= new int[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			IDENTITY[i] = i;
+		}
+	}
+
+	/**
+	 * @return A LUT applying this LUT's curves, then the given cube (any curve of {@code cube} is ignored).
+	 */
+	public ColorLut withCube(ColorLut cube) {
+		int[] red = new int[256], green = new int[256], blue = new int[256];
+		for (int i = 0; i < 256; i++) {
+			red[i] = curves[i * 4] & 0xff;
+			green[i] = curves[i * 4 + 1] & 0xff;
+			blue[i] = curves[i * 4 + 2] & 0xff;
+		}
+		return new ColorLut(red, green, blue, cube.cubeSize, cube.cube);
+	}
+
+	/**
+	 * Applies the LUT in Java, using all cores.
+	 *
+	 * @param src
+	 *            input bitmap, it is left untouched unless it is also {@code dst}
+	 * @param dst
+	 *            mutable bitmap of the same size receiving the result, or {@code null} to create one
+	 * @return the result, {@code dst} if it was given
+	 */
+	public Bitmap apply(Bitmap src, Bitmap dst) {
+		int width = src.getWidth();
+		int height = src.getHeight();
+		if (dst == null) {
+			dst = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		}
+		int[] pixels = new int[width * height];
+		src.getPixels(pixels, 0, width, 0, 0, width, height);
+		apply(pixels, 0, pixels.length);
+		dst.setPixels(pixels, 0, width, 0, 0, width, height);
+		return dst;
+	}
+
+	/**
+	 * Applies the LUT with the {@code lut.rs} RenderScript kernel, falling back to {@link #apply(Bitmap, Bitmap)} if
+	 * RenderScript is not available.
+	 *
+	 * @param context
+	 *            any context, used to create the RenderScript context on first use
+	 * @param src
+	 *            input bitmap, it is left untouched unless it is also {@code dst}
+	 * @param dst
+	 *            mutable ARGB_8888 bitmap of the same size receiving the result, or {@code null} to create one
+	 * @return the result, {@code dst} if it was given
+	 */
+	public Bitmap apply(Context context, Bitmap src, Bitmap dst) {
+		if (dst == null) {
+			dst = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
+		}
+		Bitmap input = src.getConfig() == Bitmap.Config.ARGB_8888 ? src : src.copy(Bitmap.Config.ARGB_8888, false);
+		try {
+			RenderScriptFilters.get(context).lut(input, dst, this);
+			return dst;
+		}
+		catch (RSRuntimeException e) {
+			QUFactory.QLog.warning("RenderScript unavailable, applying in Java", e);
+			return apply(src, dst);
+		} finally {
+			if (input != src) {
+				input.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Applies the LUT in place to non premultiplied ARGB pixels (as returned by
+	 * {@link Bitmap#getPixels(int[], int, int, int, int, int, int)}), using all cores.
+	 */
+	public void apply(final int[] argb, final int offset, int count) {
+		ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+			@Override public void run(int from, int to) {
+				for (int i = offset + from, end = offset + to; i < end; i++) {
+					int color = argb[i];
+					int r = curves[((color >> 16) & 0xff) * 4] & 0xff;
+					int g = curves[((color >> 8) & 0xff) * 4 + 1] & 0xff;
+					int b = curves[(color & 0xff) * 4 + 2] & 0xff;
+					if (cubeSize > 1) {
+						argb[i] = (color & 0xff000000) | lookupCube(r, g, b);
+					} else {
+						argb[i] = (color & 0xff000000) | (r << 16) | (g << 8) | b;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Trilinear interpolation of the cube.
+	 *
+	 * @return The graded color as 0xRRGGBB.
+	 */
+	private int lookupCube(int r, int g, int b) {
+		int size = cubeSize;
+		int base = cubeIndex[r] + (cubeIndex[g] + cubeIndex[b] * size) * size;
+		int fr = cubeFraction[r], fg = cubeFraction[g], fb = cubeFraction[b];
+		int dy = size;
+		int dz = size * size;
+		int res = 0;
+		for (int shift = 16; shift >= 0; shift -= 8) {
+			int c000 = (cube[base] >> shift) & 0xff;
+			int c100 = (cube[base + 1] >> shift) & 0xff;
+			int c010 = (cube[base + dy] >> shift) & 0xff;
+			int c110 = (cube[base + dy + 1] >> shift) & 0xff;
+			int c001 = (cube[base + dz] >> shift) & 0xff;
+			int c101 = (cube[base + dz + 1] >> shift) & 0xff;
+			int c011 = (cube[base + dz + dy] >> shift) & 0xff;
+			int c111 = (cube[base + dz + dy + 1] >> shift) & 0xff;
+			// 8 bit fractions, intermediate results keep 8 bits of precision to stay within an int
+			int c00 = (c000 << 8) + (c100 - c000) * fr;
+			int c10 = (c010 << 8) + (c110 - c010) * fr;
+			int c01 = (c001 << 8) + (c101 - c001) * fr;
+			int c11 = (c011 << 8) + (c111 - c011) * fr;
+			int c0 = ((c00 << 8) + (c10 - c00) * fg + 128) >> 8;
+			int c1 = ((c01 << 8) + (c11 - c01) * fg + 128) >> 8;
+			int c = ((c0 << 8) + (c1 - c0) * fb + (1 << 15)) >> 16;
+			res |= clamp(c) << shift;
+		}
+		return res;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
@@ -0,0 +1,271 @@
+package quickutils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.support.v4.util.LruCache;
+
+
+/**
+ * Extracts the dominant colors of an image, e.g. to paint placeholders before the image itself is loaded.<br/>
+ * At most 64x64 pixels are sampled, their colors are quantized to 5 bits per channel and split into boxes by median
+ * cut. Palettes can be cached by key, so that the palette of a list item is computed once per thumbnail.
+ */
+public final class ColorPalette {
+
+	/** Largest number of pixels sampled along each side. */
+	private static final int						SAMPLE_SIDE	= 64;
+	private static final int						CACHE_SIZE	= 512;
+
+	private static final LruCache<String, int[]>	CACHE		= new LruCache<String, int[]>(CACHE_SIZE);
+	/** Histogram of the 15 bit colors, borrowed by one extraction at a time. */
+	private static final AtomicReference<int[]>		HISTOGRAM	= new AtomicReference<int[]>();
+
+	private ColorPalette() {}
+
+	/**
+	 * @param bitmap
+	 *            The image, usually a thumbnail. It is left untouched.
+	 * @param maxColors
+	 *            The maximum number of colors to return, at least 1.
+	 * @return The dominant colors, most represented first. Empty if the bitmap is fully transparent.
+	 */
+	public static int[] extract(Bitmap bitmap, int maxColors) {
+		checkMaxColors(maxColors);
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int stepX = (width + SAMPLE_SIDE - 1) / SAMPLE_SIDE;
+		int stepY = (height + SAMPLE_SIDE - 1) / SAMPLE_SIDE;
+		int[] row = new int[width];
+		int[] samples = new int[((width + stepX - 1) / stepX) * ((height + stepY - 1) / stepY)];
+		int count = 0;
+		for (int y = 0; y < height; y += stepY) {
+			bitmap.getPixels(row, 0, width, 0, y, width, 1);
+			for (int x = 0; x < width; x += stepX) {
+				samples[count++] = row[x];
+			}
+		}
+		return extract(samples, count, maxColors);
+	}
+
+	/**
+	 * Same as {@link #extract(Bitmap, int)}, from a tiny subsampled decode of the given file.
+	 *
+	 * @throws IOException
+	 *             If the file could not be decoded.
+	 */
+	public static int[] extract(File imageFile, int maxColors) throws IOException {
+		checkMaxColors(maxColors);
+		Point dimensions = ImageUtils.getDimensions(imageFile);
+		if (dimensions.x <= 0 || dimensions.y <= 0) throw new IOException("Could not decode " + imageFile);
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = Math.max(1, Math.min(dimensions.x, dimensions.y) / SAMPLE_SIDE);
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		Bitmap bitmap = ImageUtils.tryDecodeFile(imageFile, options);
+		if (bitmap == null) throw new IOException("Could not decode " + imageFile);
+		try {
+			return extract(bitmap, maxColors);
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Same as {@link #extract(Bitmap, int)}, cached under the given key and number of colors.
+	 *
+	 * @param key
+	 *            The key of the image, e.g. the key of its thumbnail in the thumbnail cache.
+	 * @return The cached palette if there is one for the key and number of colors, otherwise the palette of the bitmap.
+	 *         It must not be modified.
+	 */
+	public static int[] get(String key, Bitmap bitmap, int maxColors) {
+		String cacheKey = getCacheKey(key, maxColors);
+		int[] res = CACHE.get(cacheKey);
+		if (res == null) {
+			res = extract(bitmap, maxColors);
+			CACHE.put(cacheKey, res);
+		}
+		return res;
+	}
+
+	/**
+	 * @return The cached palette of the given key and number of colors, or {@code null} if it was not computed yet.
+	 */
+	public static int[] getCached(String key, int maxColors) {
+		return CACHE.get(getCacheKey(key, maxColors));
+	}
+
+	public static void clearCache() {
+		CACHE.evictAll();
+	}
+
+	/**
+	 * The same image gives different palettes for different numbers of colors.
+	 */
+	private static String getCacheKey(String key, int maxColors) {
+		return key + '#' + maxColors;
+	}
+
+	private static void checkMaxColors(int maxColors) {
+		if (maxColors <= 0) throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+	}
+
+	/**
+	 * Median cut over the distinct 15 bit colors of the given ARGB pixels.
+	 */
+	static int[] extract(int[] pixels, int count, int maxColors) {
+		checkMaxColors(maxColors);
+		int[] histogram = HISTOGRAM.getAndSet(null);
+		if (histogram == null) {
+			histogram = new int[1 << 15];
+		} else {
+			Arrays.fill(histogram, 0);
+		}
+		try {
+			return medianCut(histogram, pixels, count, maxColors);
+		} finally {
+			HISTOGRAM.compareAndSet(null, histogram);
+		}
+	}
+
+	private static int[] medianCut(int[] histogram, int[] pixels, int count, int maxColors) {
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			int color = pixels[i];
+			// Skip mostly transparent pixels
+			if ((color >>> 24) < 128) continue;
+			int quantized = ((color >> 9) & 0x7c00) | ((color >> 6) & 0x3e0) | ((color >> 3) & 0x1f);
+			if (histogram[quantized]++ == 0) {
+				distinct++;
+			}
+		}
+		int[] colors = new int[distinct];
+		for (int i = 0, j = 0; j < distinct; i++) {
+			if (histogram[i] != 0) {
+				colors[j++] = i;
+			}
+		}
+		// Boxes are ranges of colors, split until there are enough of them or none can be split
+		int[] boxFrom = new int[maxColors];
+		int[] boxTo = new int[maxColors];
+		int boxes = 0;
+		if (distinct > 0) {
+			boxTo[0] = distinct;
+			boxes = 1;
+		}
+		while (boxes < maxColors) {
+			// Split the most populated box holding more than one color
+			int box = -1;
+			int population = 0;
+			for (int i = 0; i < boxes; i++) {
+				if (boxTo[i] - boxFrom[i] < 2) continue;
+				int boxPopulation = getPopulation(histogram, colors, boxFrom[i], boxTo[i]);
+				if (boxPopulation > population) {
+					box = i;
+					population = boxPopulation;
+				}
+			}
+			if (box < 0) break;
+			int from = boxFrom[box];
+			int to = boxTo[box];
+			int shift = getLongestComponentShift(colors, from, to);
+			// Sort on the longest component by moving it to the most significant bits
+			sortByComponent(colors, from, to, shift);
+			int half = population / 2;
+			int split = from + 1;
+			for (int i = from, sum = 0; i < to - 1; i++) {
+				sum += histogram[colors[i]];
+				if (sum >= half) {
+					split = i + 1;
+					break;
+				}
+			}
+			boxTo[box] = split;
+			boxFrom[boxes] = split;
+			boxTo[boxes] = to;
+			boxes++;
+		}
+		// Average color of each box, weighted by population, most populated first
+		long[] sorted = new long[boxes];
+		for (int i = 0; i < boxes; i++) {
+			long r = 0, g = 0, b = 0, population = 0;
+			for (int j = boxFrom[i]; j < boxTo[i]; j++) {
+				int color = colors[j];
+				int n = histogram[color];
+				r += expand(color >> 10) * n;
+				g += expand(color >> 5) * n;
+				b += expand(color) * n;
+				population += n;
+			}
+			int average = 0xff000000 | (int) (r / population) << 16 | (int) (g / population) << 8 | (int) (b / population);
+			sorted[i] = (population << 32) | (average & 0xffffffffL);
+		}
+		Arrays.sort(sorted);
+		int[] res = new int[boxes];
+		for (int i = 0; i < boxes; i++) {
+			res[i] = (int) sorted[boxes - 1 - i];
+		}
+		return res;
+	}
+
+	private static int getPopulation(int[] histogram, int[] colors, int from, int to) {
+		int res = 0;
+		for (int i = from; i < to; i++) {
+			res += histogram[colors[i]];
+		}
+		return res;
+	}
+
+	/**
+	 * @return The shift of the 5 bit component (10 for red, 5 for green, 0 for blue) with the widest range in the box.
+	 */
+	private static int getLongestComponentShift(int[] colors, int from, int to) {
+		int bestShift = 10;
+		int bestRange = -1;
+		for (int shift = 10; shift >= 0; shift -= 5) {
+			int min = 31, max = 0;
+			for (int i = from; i < to; i++) {
+				int component = (colors[i] >> shift) & 0x1f;
+				if (component < min) min = component;
+				if (component > max) max = component;
+			}
+			if (max - min > bestRange) {
+				bestShift = shift;
+				bestRange = max - min;
+			}
+		}
+		return bestShift;
+	}
+
+	private static void sortByComponent(int[] colors, int from, int to, int shift) {
+		if (shift != 10) {
+			swapComponents(colors, from, to, shift);
+		}
+		Arrays.sort(colors, from, to);
+		if (shift != 10) {
+			swapComponents(colors, from, to, shift);
+		}
+	}
+
+	/**
+	 * Swaps the red component and the component at {@code shift} of each color.
+	 */
+	private static void swapComponents(int[] colors, int from, int to, int shift) {
+		for (int i = from; i < to; i++) {
+			int color = colors[i];
+			int red = (color >> 10) & 0x1f;
+			int other = (color >> shift) & 0x1f;
+			colors[i] = (color & ~((0x1f << 10) | (0x1f << shift))) | (other << 10) | (red << shift);
+		}
+	}
+
+	private static int expand(int component) {
+		component &= 0x1f;
+		return (component << 3) | (component >> 2);
+	}
+}
@@ -0,0 +1,203 @@
+package quickutils.core;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v8.renderscript.RSRuntimeException;
+
+
+/**
+ * Chain of per-pixel color adjustments (contrast, brightness, saturation, grayscale...) folded into a single 4x5 color
+ * matrix, in the layout of {@link android.graphics.ColorMatrix}, and applied in one pass over the pixels.<br/>
+ * Adjustments are applied in the order they are added. A pipeline is not thread-safe, it keeps a pixel buffer between
+ * calls to {@link #apply(Bitmap, Bitmap)}.
+ */
+public class ColorPipeline {
+
+	/** Fixed point precision of the Java pass. */
+	private static final int	SHIFT		= 12;
+	private static final int	ONE			= 1 << SHIFT;
+	/** Below this many pixels per band, the Java pass is not worth splitting across threads. */
+	private static final int	MIN_BAND	= 32 * 1024;
+
+	private final float[]		matrix		= new float[20];
+	private int[]				pixels;
+
+	public ColorPipeline() {
+		reset();
+	}
+
+	/**
+	 * Removes all the adjustments.
+	 */
+	public ColorPipeline reset() {
+		for (int i = 0; i < 20; i++) {
+			matrix[i] = i % 6 == 0 ? 1 : 0;
+		}
+		return this;
+	}
+
+	/**
+	 * @param contrast
+	 *            0..10 1 is default, scales the colors around mid gray
+	 */
+	public ColorPipeline contrast(float contrast) {
+		float offset = 128f * (1f - contrast);
+		return concat(new float[] { contrast, 0, 0, 0, offset, 0, contrast, 0, 0, offset, 0, 0, contrast, 0, offset, 0, 0, 0, 1, 0 });
+	}
+
+	/**
+	 * Same as the brightness of {@code contrast.rs}: the colors are scaled by {@code 2^(value/100)} around 127.
+	 *
+	 * @param value
+	 *            0 is default
+	 */
+	public ColorPipeline exposure(float value) {
+		float scale = (float) Math.pow(2, value / 100f);
+		float offset = 127f - scale * 127f;
+		return concat(new float[] { scale, 0, 0, 0, offset, 0, scale, 0, 0, offset, 0, 0, scale, 0, offset, 0, 0, 0, 1, 0 });
+	}
+
+	/**
+	 * @param brightness
+	 *            -255..255 0 is default, added to each color channel
+	 */
+	public ColorPipeline brightness(float brightness) {
+		return concat(new float[] { 1, 0, 0, 0, brightness, 0, 1, 0, 0, brightness, 0, 0, 1, 0, brightness, 0, 0, 0, 1, 0 });
+	}
+
+	/**
+	 * @param saturation
+	 *            0 is grayscale, 1 is default, more than 1 increases the saturation
+	 */
+	public ColorPipeline saturation(float saturation) {
+		// Same luminance weights as android.graphics.ColorMatrix#setSaturation
+		float invSat = 1 - saturation;
+		float r = 0.213f * invSat;
+		float g = 0.715f * invSat;
+		float b = 0.072f * invSat;
+		return concat(new float[] { r + saturation, g, b, 0, 0, r, g + saturation, b, 0, 0, r, g, b + saturation, 0, 0, 0, 0, 0, 1, 0 });
+	}
+
+	public ColorPipeline grayscale() {
+		return saturation(0);
+	}
+
+	/**
+	 * Appends an arbitrary adjustment.
+	 *
+	 * @param colorMatrix
+	 *            4x5 matrix in the layout of {@link android.graphics.ColorMatrix}
+	 */
+	public ColorPipeline concat(float[] colorMatrix) {
+		float[] previous = matrix.clone();
+		for (int row = 0; row < 4; row++) {
+			for (int column = 0; column < 5; column++) {
+				float value = column == 4 ? colorMatrix[row * 5 + 4] : 0;
+				for (int k = 0; k < 4; k++) {
+					value += colorMatrix[row * 5 + k] * previous[k * 5 + column];
+				}
+				matrix[row * 5 + column] = value;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return A copy of the folded 4x5 matrix, usable with {@link android.graphics.ColorMatrix}.
+	 */
+	public float[] getMatrix() {
+		return matrix.clone();
+	}
+
+	/**
+	 * Applies the adjustments in Java, using all cores.
+	 *
+	 * @param src
+	 *            input bitmap, it is left untouched unless it is also {@code dst}
+	 * @param dst
+	 *            mutable bitmap of the same size receiving the result, or {@code null} to create one
+	 * @return the result, {@code dst} if it was given
+	 */
+	public Bitmap apply(Bitmap src, Bitmap dst) {
+		int width = src.getWidth();
+		int height = src.getHeight();
+		if (dst == null) {
+			dst = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		}
+		int count = width * height;
+		if (pixels == null || pixels.length < count) {
+			pixels = new int[count];
+		}
+		src.getPixels(pixels, 0, width, 0, 0, width, height);
+		apply(pixels, 0, count);
+		dst.setPixels(pixels, 0, width, 0, 0, width, height);
+		return dst;
+	}
+
+	/**
+	 * Applies the adjustments with a RenderScript kernel, falling back to {@link #apply(Bitmap, Bitmap)} if RenderScript
+	 * is not available.
+	 *
+	 * @param context
+	 *            any context, used to create the RenderScript context on first use
+	 * @param src
+	 *            input bitmap, it is left untouched unless it is also {@code dst}
+	 * @param dst
+	 *            mutable ARGB_8888 bitmap of the same size receiving the result, or {@code null} to create one
+	 * @return the result, {@code dst} if it was given
+	 */
+	public Bitmap apply(Context context, Bitmap src, Bitmap dst) {
+		if (dst == null) {
+			dst = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
+		}
+		Bitmap input = src.getConfig() == Bitmap.Config.ARGB_8888 ? src : src.copy(Bitmap.Config.ARGB_8888, false);
+		try {
+			RenderScriptFilters.get(context).colorMatrix(input, dst, matrix);
+			return dst;
+		}
+		catch (RSRuntimeException e) {
+			QUFactory.QLog.warning("RenderScript unavailable, applying in Java", e);
+			return apply(src, dst);
+		} finally {
+			if (input != src) {
+				input.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Applies the adjustments in place to non premultiplied ARGB pixels (as returned by
+	 * {@link Bitmap#getPixels(int[], int, int, int, int, int, int)}), using all cores.
+	 */
+	public void apply(final int[] argb, final int offset, int count) {
+		final int[] m = new int[20];
+		for (int i = 0; i < 20; i++) {
+			m[i] = Math.round(matrix[i] * ONE);
+		}
+		for (int i = 4; i < 20; i += 5) {
+			// Offsets are in 0..255 units, add the rounding half
+			m[i] += ONE / 2;
+		}
+		ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+			@Override public void run(int from, int to) {
+				for (int i = offset + from, end = offset + to; i < end; i++) {
+					int color = argb[i];
+					int a = color >>> 24;
+					int r = (color >> 16) & 0xff;
+					int g = (color >> 8) & 0xff;
+					int b = color & 0xff;
+					int nr = clamp((m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4]) >> SHIFT);
+					int ng = clamp((m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9]) >> SHIFT);
+					int nb = clamp((m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]) >> SHIFT);
+					int na = clamp((m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19]) >> SHIFT);
+					argb[i] = (na << 24) | (nr << 16) | (ng << 8) | nb;
+				}
+			}
+		});
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
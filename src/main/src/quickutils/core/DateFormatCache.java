@@ -0,0 +1,127 @@
+package quickutils.core;
+
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Per-thread cache of {@link SimpleDateFormat}s keyed by pattern, timezone ID and locale.<br/>
+ * Creating a {@link SimpleDateFormat} parses its pattern and loads the locale data, so it is done once per key and per
+ * thread, and {@link TimeZone#getTimeZone(String)} is only called on a cache miss. Lookups with a timezone ID do not
+ * allocate, those in the default timezone only allocate the clone returned by {@link TimeZone#getDefault()}.
+ */
+final class DateFormatCache {
+
+     /** Maximum number of formatters kept per thread, the least recently used ones are dropped. */
+     private static final int                    MAX_SIZE = 32;
+
+     private static volatile TimeZone            defaultTimeZone;
+
+     private static final class Key {
+
+          String   pattern;
+          /** {@code null} for the default timezone. */
+          String   timeZoneId;
+          /** The instance of {@link #getDefaultTimeZone()} for the default timezone, compared by identity. */
+          TimeZone defaultZone;
+          Locale   locale;
+          int      hash;
+
+          Key set(String pattern, String timeZoneId, TimeZone defaultZone, Locale locale) {
+               this.pattern = pattern;
+               this.timeZoneId = timeZoneId;
+               this.defaultZone = defaultZone;
+               this.locale = locale;
+               int zoneHash = timeZoneId != null ? timeZoneId.hashCode() : System.identityHashCode(defaultZone);
+               this.hash = (pattern.hashCode() * 31 + zoneHash) * 31 + locale.hashCode();
+               return this;
+          }
+
+          @Override
+          public int hashCode() {
+               return hash;
+          }
+
+          @Override
+          public boolean equals(Object o) {
+               if ( !(o instanceof Key) ) { return false; }
+               Key other = (Key) o;
+               return hash == other.hash && pattern.equals(other.pattern) && defaultZone == other.defaultZone
+                         && (timeZoneId == null ? other.timeZoneId == null : timeZoneId.equals(other.timeZoneId)) && locale.equals(other.locale);
+          }
+     }
+
+     private static final class Formats extends LinkedHashMap<Key, SimpleDateFormat> {
+
+          private static final long serialVersionUID = 1L;
+
+          /** Reused for lookups, so that hits do not allocate. */
+          final Key                 lookup           = new Key();
+
+          Formats () {
+               super(16, 0.75f, true);
+          }
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, SimpleDateFormat> eldest) {
+               return size() > MAX_SIZE;
+          }
+     }
+
+     private static final ThreadLocal<Formats>   FORMATS            = new ThreadLocal<Formats>() {
+
+                                                                         @Override
+                                                                         protected Formats initialValue() {
+                                                                              return new Formats();
+                                                                         }
+                                                                    };
+
+     private DateFormatCache () {
+     }
+
+     /**
+      * @param pattern
+      *             pattern of the {@link SimpleDateFormat}
+      * @param timeZoneId
+      *             timezone ID (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      * @param locale
+      *             locale of the formatter, or {@code null} for the default locale
+      * @return the formatter of the calling thread for this key. It must not be shared with other threads nor
+      *         reconfigured.
+      */
+     static SimpleDateFormat get(String pattern, String timeZoneId, Locale locale) {
+          // The default timezone is used as is rather than resolved by ID, which would turn a custom default timezone
+          // into GMT
+          TimeZone defaultZone = timeZoneId == null ? getDefaultTimeZone() : null;
+          if ( locale == null ) {
+               locale = Locale.getDefault();
+          }
+          Formats formats = FORMATS.get();
+          SimpleDateFormat format = formats.get(formats.lookup.set(pattern, timeZoneId, defaultZone, locale));
+          if ( format == null ) {
+               format = new SimpleDateFormat(pattern, locale);
+               format.setTimeZone(defaultZone != null ? (TimeZone) defaultZone.clone() : TimeZone.getTimeZone(timeZoneId));
+               formats.put(new Key().set(pattern, timeZoneId, defaultZone, locale), format);
+          }
+          return format;
+     }
+
+     /**
+      * {@link TimeZone#getDefault()} is read on every call, so that a {@link TimeZone#setDefault(TimeZone)} is seen
+      * right away, and compared with the cached instance. The instance only changes when the default timezone does, so
+      * that the formatters, parsers and offset tables keyed by it stay valid until then.
+      *
+      * @return the default timezone, shared by all threads. It must not be modified.
+      */
+     static TimeZone getDefaultTimeZone() {
+          TimeZone current = TimeZone.getDefault();
+          TimeZone zone = defaultTimeZone;
+          if ( zone == null || !current.equals(zone) ) {
+               zone = current;
+               defaultTimeZone = zone;
+          }
+          return zone;
+     }
+}
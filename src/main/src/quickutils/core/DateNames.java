@@ -0,0 +1,125 @@
+package quickutils.core;
+
+import java.text.DateFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned tables of month names per locale and of English ordinals, built once on first use so that formatting a row
+ * of a list does not allocate.
+ */
+final class DateNames {
+
+     /** Ordinals from 0 to this value (exclusive) are kept in a table, larger ones are built on each call. */
+     private static final int                                  CACHED_ORDINALS = 400;
+
+     private static final ConcurrentHashMap<Locale, String[][]> MONTHS          = new ConcurrentHashMap<Locale, String[][]>();
+     private static volatile String[]                          ordinals;
+
+     private DateNames () {
+     }
+
+     /**
+      * @param month
+      *             {@link java.util.Calendar#JANUARY} to {@link java.util.Calendar#DECEMBER}, any other value gives
+      *             January
+      * @param useShort
+      *             to get "Jun" instead of "June"
+      * @param locale
+      *             locale of the name, or {@code null} for the default locale
+      * @return the stand-alone name of the month, as in a calendar header rather than inside a date
+      */
+     static String getMonth(int month, boolean useShort, Locale locale) {
+          if ( locale == null ) {
+               locale = Locale.getDefault();
+          }
+          String[][] names = MONTHS.get(locale);
+          if ( names == null ) {
+               names = new String[][] { getStandAloneMonths("LLLL", locale), getStandAloneMonths("LLL", locale) };
+               String[][] previous = MONTHS.putIfAbsent(locale, names);
+               if ( previous != null ) {
+                    names = previous;
+               }
+          }
+          return names[useShort ? 1 : 0][month >= 0 && month < 12 ? month : 0];
+     }
+
+     /**
+      * @return the number followed by its English ordinal suffix, e.g. "1st", "12th", "23rd" or "111th"
+      */
+     static String getOrdinal(int number) {
+          if ( number >= 0 && number < CACHED_ORDINALS ) {
+               String[] table = ordinals;
+               if ( table == null ) {
+                    table = new String[CACHED_ORDINALS];
+                    for (int i = 0; i < CACHED_ORDINALS; i++) {
+                         table[i] = (i + getOrdinalSuffix(i)).intern();
+                    }
+                    ordinals = table;
+               }
+               return table[number];
+          }
+          return number + getOrdinalSuffix(number);
+     }
+
+     /**
+      * @return the English ordinal suffix of the number: "th" from 11 to 13 of each hundred, otherwise depending on the
+      *         last digit
+      */
+     static String getOrdinalSuffix(int number) {
+          int n = Math.abs(number % 100);
+          if ( n >= 11 && n <= 13 ) { return "th"; }
+          switch (n % 10) {
+               case 1:
+                    return "st";
+               case 2:
+                    return "nd";
+               case 3:
+                    return "rd";
+               default:
+                    return "th";
+          }
+     }
+
+     /**
+      * {@link DateFormatSymbols} only has the names used inside a date, which differ from the stand-alone ones in e.g.
+      * Russian, Polish, Czech or Ukrainian, so the stand-alone names are formatted with the "L" pattern letter. Runtimes
+      * without it fall back to the names of {@link DateFormatSymbols}.
+      *
+      * @param pattern
+      *             "LLLL" for the full names, "LLL" for the short ones
+      */
+     private static String[] getStandAloneMonths(String pattern, Locale locale) {
+          SimpleDateFormat format;
+          try {
+               format = new SimpleDateFormat(pattern, locale);
+          } catch (IllegalArgumentException e) {
+               DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+               return intern(pattern.length() == 4 ? symbols.getMonths() : symbols.getShortMonths());
+          }
+          TimeZone gmt = TimeZone.getTimeZone("GMT");
+          format.setTimeZone(gmt);
+          Calendar calendar = Calendar.getInstance(gmt, locale);
+          calendar.clear();
+          String[] res = new String[12];
+          for (int i = 0; i < res.length; i++) {
+               calendar.set(2000, i, 15);
+               res[i] = format.format(calendar.getTime());
+          }
+          return intern(res);
+     }
+
+     /**
+      * Interns the 12 first names, {@link DateFormatSymbols} adds an empty 13th month.
+      */
+     private static String[] intern(String[] names) {
+          String[] res = new String[12];
+          for (int i = 0; i < res.length; i++) {
+               res[i] = names[i].intern();
+          }
+          return res;
+     }
+}
@@ -1,12 +1,8 @@
 package quickutils.core;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
-import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 import quickutils.core.QUFactory.QLog;
 
@@ -16,6 +12,11 @@ public class DateUtils {
      public static final int TODAY     = 0;
      public static final int TOMORROW  = 1;
 
+     /** Last year of the Julian calendar, see {@link java.util.GregorianCalendar}. */
+     private static final int GREGORIAN_CUTOVER_YEAR = 1582;
+
+     private static TimestampParser isoParser;
+
      DateUtils () {
      }
 
@@ -23,23 +24,95 @@ public class DateUtils {
       * @param monthNumber
       *             Month Number starts with 0. For <b>January</b> it is <b>0</b> and for <b>December</b> it is <b>11</b>.
       * @param year
-      * @return amount of days in specific month
+      * @return amount of days in specific month, 0 for an invalid month. Like {@link java.util.GregorianCalendar}, years
+      *         until 1582 follow the Julian calendar.
       */
      public static int getDaysInMonth(int monthNumber, int year) {
-          int days = 0;
-          if ( monthNumber >= 0 && monthNumber < 12 ) {
-               try {
-                    Calendar calendar = Calendar.getInstance();
-                    int date = 1;
-                    calendar.set(year, monthNumber, date);
-                    days = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-               } catch (Exception e) {
-                    if ( e != null ) {
-                         e.printStackTrace();
+          if ( monthNumber < 0 || monthNumber >= 12 ) { return 0; }
+          if ( monthNumber == Calendar.FEBRUARY ) { return isLeapYear(year) ? 29 : 28; }
+          return EpochMath.daysInMonth(year, monthNumber + 1);
+     }
+
+     /**
+      * @param year
+      * @return true if the year is a leap year, every fourth year until 1582 as in the Julian calendar, then with the
+      *         Gregorian rules like {@link java.util.GregorianCalendar#isLeapYear(int)}
+      */
+     public static boolean isLeapYear(int year) {
+          return year <= GREGORIAN_CUTOVER_YEAR ? (year & 3) == 0 : EpochMath.isLeapYear(year);
+     }
+
+     /**
+      * Fills the 6 weeks of a month view without allocating: the days of the month, preceded by the last days of the
+      * previous month and followed by the first days of the next month as negative numbers.
+      * 
+      * @param year
+      * @param monthNumber
+      *             Month Number starts with 0. For <b>January</b> it is <b>0</b> and for <b>December</b> it is <b>11</b>.
+      * @param firstDayOfWeek
+      *             first column of the grid, e.g. {@link Calendar#SUNDAY} or {@link Calendar#MONDAY}
+      * @param cells
+      *             receives the 42 days of the grid, week by week
+      * @return index in {@code cells} of the first day of the month
+      */
+     public static int getMonthGrid(int year, int monthNumber, int firstDayOfWeek, int[] cells) {
+          int first = (int) EpochMath.floorMod(getDayOfWeek(year, monthNumber, 1) - firstDayOfWeek, 7);
+          int previousLength = monthNumber == 0 ? 31 : getDaysInMonth(monthNumber - 1, year);
+          for (int i = 0; i < first; i++) {
+               cells[i] = -(previousLength - first + 1 + i);
+          }
+          int length = getDaysInMonth(monthNumber, year);
+          int i = first;
+          for (int day = 1; day <= length; day = getNextDay(year, monthNumber, day)) {
+               cells[i++] = day;
+          }
+          for (int day = 1; i < 42; day = getNextDay(year, monthNumber + 1, day)) {
+               cells[i++] = -day;
+          }
+          return first;
+     }
+
+     /**
+      * Fills the number of days and the day of the week of the first day of each month of a range of years, e.g. to
+      * lay out a scrolling calendar.
+      * 
+      * @param fromYear
+      *             first year of the range
+      * @param toYear
+      *             last year of the range, inclusive
+      * @param daysInMonth
+      *             receives the number of days of each month, 12 per year, or {@code null}
+      * @param firstDayOfWeek
+      *             receives the day of the week of the first day of each month, {@link Calendar#SUNDAY} to
+      *             {@link Calendar#SATURDAY}, 12 per year, or {@code null}
+      */
+     public static void getMonthTable(int fromYear, int toYear, byte[] daysInMonth, byte[] firstDayOfWeek) {
+          int index = 0;
+          for (int year = fromYear; year <= toYear; year++) {
+               for (int month = 0; month < 12; month++, index++) {
+                    if ( daysInMonth != null ) {
+                         daysInMonth[index] = (byte) getDaysInMonth(month, year);
+                    }
+                    if ( firstDayOfWeek != null ) {
+                         firstDayOfWeek[index] = (byte) getDayOfWeek(year, month, 1);
                     }
                }
           }
-          return days;
+     }
+
+     /**
+      * @return the day of the month following the given one, October 4, 1582 being followed by October 15
+      */
+     private static int getNextDay(int year, int monthNumber, int day) {
+          return day == 4 && year == GREGORIAN_CUTOVER_YEAR && monthNumber == Calendar.OCTOBER ? 15 : day + 1;
+     }
+
+     /**
+      * @return the day of the week of the date, with the Julian calendar before October 15, 1582
+      */
+     private static int getDayOfWeek(int year, int monthNumber, int day) {
+          boolean julian = year < GREGORIAN_CUTOVER_YEAR || (year == GREGORIAN_CUTOVER_YEAR && (monthNumber < Calendar.OCTOBER || (monthNumber == Calendar.OCTOBER && day < 15)));
+          return EpochMath.dayOfWeek(julian ? EpochMath.julianDaysFromCivil(year, monthNumber + 1, day) : EpochMath.daysFromCivil(year, monthNumber + 1, day));
      }
 
      /**
@@ -48,8 +121,7 @@ public class DateUtils {
       * @return current year
       */
      public static int getCurrentYear() {
-          Calendar c = Calendar.getInstance();
-          return c.get(Calendar.YEAR);
+          return EpochMath.year(getCurrentLocalDate());
      }
 
      /**
@@ -58,8 +130,8 @@ public class DateUtils {
       * @return current month
       */
      public static int getCurrentMonth() {
-          Calendar c = Calendar.getInstance();
-          return c.get(Calendar.MONTH);
+          // Calendar months start with 0
+          return EpochMath.month(getCurrentLocalDate()) - 1;
      }
 
      /**
@@ -68,8 +140,16 @@ public class DateUtils {
       * @return current day
       */
      public static int getCurrentDay() {
-          Calendar c = Calendar.getInstance();
-          return c.get(Calendar.DAY_OF_MONTH);
+          return EpochMath.day(getCurrentLocalDate());
+     }
+
+     /**
+      * @return the current date in the default timezone, packed by {@link EpochMath#civilFromDays(long)}
+      */
+     private static int getCurrentLocalDate() {
+          long now = System.currentTimeMillis();
+          long local = now + ZoneOffsetTable.get(null).getOffset(now);
+          return EpochMath.civilFromDays(EpochMath.floorDiv(local, EpochMath.MILLIS_PER_DAY));
      }
 
      /**
@@ -78,7 +158,7 @@ public class DateUtils {
       * @return current date
       */
      public static java.util.Date getCurrentDate() {
-          return Calendar.getInstance().getTime();
+          return new java.util.Date(System.currentTimeMillis());
      }
 
      /**
@@ -87,13 +167,12 @@ public class DateUtils {
       * @return the number of miliseconds since midnight
       */
      public static long getTimeSinceMidnight() {
-          Calendar c = Calendar.getInstance();
-          long now = c.getTimeInMillis();
-          c.set(Calendar.HOUR_OF_DAY, 0);
-          c.set(Calendar.MINUTE, 0);
-          c.set(Calendar.SECOND, 0);
-          c.set(Calendar.MILLISECOND, 0);
-          return now - c.getTimeInMillis();
+          long now = System.currentTimeMillis();
+          ZoneOffsetTable table = ZoneOffsetTable.get(null);
+          long local = now + table.getOffset(now);
+          long midnight = local - EpochMath.floorMod(local, EpochMath.MILLIS_PER_DAY);
+          // Elapsed time, which differs from the wall clock time on the days the offset changes
+          return now - (midnight - table.getOffsetFromLocal(midnight));
      }
 
      /**
@@ -106,8 +185,7 @@ public class DateUtils {
       * @return returns a day with the given format
       */
      public static String getDayAsString(int day, String format) {
-          SimpleDateFormat simpleFormat = new SimpleDateFormat(format);
-          return simpleFormat.format(getDayAsDate(day));
+          return DateFormatCache.get(format, null, null).format(getDayAsDate(day));
      }
 
      /**
@@ -138,14 +216,23 @@ public class DateUtils {
           return formatDateBase(date, format, timeZone);
      }
 
+     /**
+      * Compiles a fixed numeric pattern into a formatter writing straight into a {@code char[]}, a
+      * {@link StringBuilder} or a {@link java.nio.ByteBuffer}, much faster than {@link #formatDate(long, String, String)}
+      * for log lines and payloads.
+      * 
+      * @param format
+      *             pattern made of y, M, d, H, m, s, S and literals (e.g. "yyyy/MM/dd HH:mm:ss.SSS")
+      * @param timeZone
+      *             specify the intended timezone (e.g. "GMT", "UTC", etc.), or {@code null} for the default timezone
+      * @return the compiled formatter, which is thread-safe and should be kept
+      */
+     public static TimestampFormatter compileFormat(String format, String timeZone) {
+          return TimestampFormatter.compile(format, timeZone);
+     }
+
      private static String formatDateBase(long date, String format, String timeZone) {
-          DateFormat simpleFormat = new SimpleDateFormat(format);
-          if ( timeZone != null ) {
-               simpleFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
-          } else {
-               simpleFormat.setTimeZone(TimeZone.getDefault());
-          }
-          return simpleFormat.format(date);
+          return DateFormatCache.get(format, timeZone, null).format(date);
      }
 
      /**
@@ -175,21 +262,76 @@ public class DateUtils {
      public static java.util.Date parseDate(String dateString, String dateFormat) {
           java.util.Date newDate = null;
 
+          // Numeric patterns are parsed without SimpleDateFormat, which is only used for the other patterns and to keep
+          // its lenient behaviour on the texts the fast parser rejects
+          TimestampParser parser = TimestampParser.forPattern(dateFormat);
+          if ( parser != null && parser.readsLikeSimpleDateFormat() ) {
+               long[] out = new long[1];
+               if ( parser.parse(dateString, out) == TimestampParser.OK ) { return new java.util.Date(out[0]); }
+          }
+
           try {
-               newDate = new SimpleDateFormat(dateFormat, Locale.ENGLISH).parse(dateString);
+               newDate = DateFormatCache.get(dateFormat, null, Locale.ENGLISH).parse(dateString);
           } catch (ParseException e) {
                QLog.debug("parse error", e);
           }
           return newDate;
      }
 
+     /**
+      * Parses a timestamp without allocating anything, e.g. for large imports
+      * 
+      * @param text
+      *             timestamp in the given format
+      * @param dateFormat
+      *             numeric format made of y, M, d, H, m, s, S and literals (e.g. "yyyy-MM-dd HH:mm:ss"), in the default
+      *             timezone. Two digit years are read as 20yy.
+      * @param out
+      *             receives the epoch millis in {@code out[0]}
+      * @return {@link TimestampParser#OK}, {@link TimestampParser#ERROR_SYNTAX} or {@link TimestampParser#ERROR_RANGE}
+      * @throws IllegalArgumentException
+      *              if the format is not supported
+      */
+     public static int parseTimestamp(CharSequence text, String dateFormat, long[] out) {
+          TimestampParser parser = TimestampParser.forPattern(dateFormat);
+          if ( parser == null ) { throw new IllegalArgumentException("Unsupported format " + dateFormat); }
+          return parser.parse(text, out);
+     }
+
+     /**
+      * Parses an ISO-8601 timestamp (e.g. "2014-03-25T10:15:30.123+01:00") without allocating anything, see
+      * {@link TimestampParser#iso8601(String)}. Timestamps without offset are in the default timezone.
+      * 
+      * @param out
+      *             receives the epoch millis in {@code out[0]}
+      * @return {@link TimestampParser#OK}, {@link TimestampParser#ERROR_SYNTAX} or {@link TimestampParser#ERROR_RANGE}
+      */
+     public static int parseIsoTimestamp(CharSequence text, long[] out) {
+          TimestampParser parser = isoParser;
+          if ( parser == null || !parser.isInDefaultTimeZone() ) {
+               parser = TimestampParser.iso8601(null);
+               isoParser = parser;
+          }
+          return parser.parse(text, out);
+     }
+
      /**
       * get Current time in milliseconds
       * 
       * @return current time in milliseconds
       */
      public static long getCurrentTimeInMiliseconds() {
-          return TimeUnit.MILLISECONDS.toMillis(Calendar.getInstance().getTimeInMillis());
+          return System.currentTimeMillis();
+     }
+
+     /**
+      * get a Current time in milliseconds refreshed by a background thread, which can be up to about 10 milliseconds
+      * old but costs a single field read. Use it on hot paths where that staleness does not matter.
+      * 
+      * @return current time in milliseconds
+      */
+     public static long getCoarseCurrentTimeInMiliseconds() {
+          return CoarseClock.currentTimeMillis();
      }
 
      /**
@@ -198,8 +340,51 @@ public class DateUtils {
       * @return current time in seconds
       */
      public static long getCurrentTimeInSeconds() {
-          return TimeUnit.SECONDS.toSeconds(Calendar.getInstance().getTimeInMillis());
+          return System.currentTimeMillis() / 1000;
+     }
+
+     /**
+      * Describes a time relatively to now, e.g. "just now", "5 minutes ago" or "in 2 hours". The strings are cached, so
+      * this does not allocate for differences up to 10 years.
+      * 
+      * @param time
+      *             time in milliseconds
+      * @param now
+      *             current time in milliseconds, see {@link #getCoarseCurrentTimeInMiliseconds()}
+      * @return the relative time in English
+      */
+     public static String getRelativeTime(long time, long now) {
+          return RelativeTime.format(time, now);
+     }
 
+     /**
+      * @see #getRelativeTime(long, long)
+      * @return the instant after {@code now} at which the relative time of {@code time} changes, to refresh its text
+      *         only then
+      */
+     public static long getRelativeTimeNextChange(long time, long now) {
+          return RelativeTime.nextChange(time, now);
+     }
+
+     /**
+      * Finds when the first of several relative times changes, so that a list schedules a single refresh instead of
+      * re-binding all its rows periodically.
+      * 
+      * @param times
+      *             times in milliseconds
+      * @param count
+      *             number of times to check
+      * @param now
+      *             current time in milliseconds
+      * @return the earliest instant after {@code now} at which one of the relative times changes, or
+      *         {@link Long#MAX_VALUE} if {@code count} is 0
+      */
+     public static long getRelativeTimeNextChange(long[] times, int count, long now) {
+          long res = Long.MAX_VALUE;
+          for (int i = 0; i < count; i++) {
+               res = Math.min(res, RelativeTime.nextChange(times[i], now));
+          }
+          return res;
      }
 
      /**
@@ -207,68 +392,53 @@ public class DateUtils {
       * 
       * @param number
       *             number that will be converted
-      * @return (e.g. "1" becomes "1st", "3" becomes "3rd", etc)
+      * @return (e.g. "1" becomes "1st", "3" becomes "3rd", "112" becomes "112th", etc)
       */
      public static String getNumberWithSuffix(int number) {
-          int j = number % 10;
-          if ( j == 1 && number != 11 ) { return number + "st"; }
-          if ( j == 2 && number != 12 ) { return number + "nd"; }
-          if ( j == 3 && number != 13 ) { return number + "rd"; }
-          return number + "th";
+          return DateNames.getOrdinal(number);
      }
 
      /**
-      * Converts a month by number to full text
+      * Appends the number with its suffix, without creating a String.
+      * 
+      * @see #getNumberWithSuffix(int)
+      * @return the builder
+      */
+     public static StringBuilder appendNumberWithSuffix(StringBuilder builder, int number) {
+          return builder.append(number).append(DateNames.getOrdinalSuffix(number));
+     }
+
+     /**
+      * Converts a month by number to full English text
       * 
       * @param month
-      *             number of the month 1..12
+      *             number of the month, {@link Calendar#JANUARY} to {@link Calendar#DECEMBER}
       * @param useShort
       *             boolean that gives "Jun" instead of "June" if true
-      * @return returns "January" if "1" is given
+      * @return returns "January" if {@link Calendar#JANUARY} or an invalid month is given
       */
      public static String convertMonth(int month, boolean useShort) {
-          String monthStr;
-          switch (month) {
-               default:
-                    monthStr = "January";
-                    break;
-               case Calendar.FEBRUARY:
-                    monthStr = "February";
-                    break;
-               case Calendar.MARCH:
-                    monthStr = "March";
-                    break;
-               case Calendar.APRIL:
-                    monthStr = "April";
-                    break;
-               case Calendar.MAY:
-                    monthStr = "May";
-                    break;
-               case Calendar.JUNE:
-                    monthStr = "June";
-                    break;
-               case Calendar.JULY:
-                    monthStr = "July";
-                    break;
-               case Calendar.AUGUST:
-                    monthStr = "August";
-                    break;
-               case Calendar.SEPTEMBER:
-                    monthStr = "September";
-                    break;
-               case Calendar.OCTOBER:
-                    monthStr = "October";
-                    break;
-               case Calendar.NOVEMBER:
-                    monthStr = "November";
-                    break;
-               case Calendar.DECEMBER:
-                    monthStr = "December";
-                    break;
-          }
-          if ( useShort ) {
-               monthStr = monthStr.substring(0, 3);
-          }
-          return monthStr;
+          return DateNames.getMonth(month, useShort, Locale.ENGLISH);
+     }
+
+     /**
+      * Converts a month by number to text in the given locale
+      * 
+      * @param locale
+      *             locale of the name, or {@code null} for the default locale
+      * @see #convertMonth(int, boolean)
+      */
+     public static String convertMonth(int month, boolean useShort, Locale locale) {
+          return DateNames.getMonth(month, useShort, locale);
+     }
+
+     /**
+      * Appends the name of the month in the given locale, without creating a String.
+      * 
+      * @see #convertMonth(int, boolean, Locale)
+      * @return the builder
+      */
+     public static StringBuilder appendMonth(StringBuilder builder, int month, boolean useShort, Locale locale) {
+          return builder.append(DateNames.getMonth(month, useShort, locale));
      }
-}
\ No newline at end of file
+}
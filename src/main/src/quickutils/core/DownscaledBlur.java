@@ -0,0 +1,135 @@
+package quickutils.core;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.v8.renderscript.RSRuntimeException;
+
+
+/**
+ * Large radius blur done on a downscaled copy: the source is drawn into a small bitmap, blurred there with a radius
+ * divided by the same factor, then drawn back with bilinear filtering.<br/>
+ * The small bitmap, its pixel buffer and the drawing objects are borrowed for the duration of a blur and given back in
+ * a finally block. One idle set is kept between blurs and reused as long as the sizes match, threads blurring at the
+ * same time get their own set, recycled when given back.
+ */
+final class DownscaledBlur {
+
+	/** Maximum downscale factor, beyond it the upscaled result shows blocks. */
+	private static final int						MAX_FACTOR	= 8;
+	/** Smallest radius the small image is blurred with. */
+	private static final int						MIN_RADIUS	= 4;
+
+	private static final AtomicReference<DownscaledBlur>	IDLE		= new AtomicReference<DownscaledBlur>();
+
+	private final Canvas	canvas		= new Canvas();
+	private final Paint		paint		= new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Rect		srcRect		= new Rect();
+	private final Rect		dstRect		= new Rect();
+	private Bitmap			small;
+	private int[]			pixels;
+
+	private DownscaledBlur() {}
+
+	/**
+	 * Returns the downscale factor used for the given radius: the largest power of two, up to 8, that keeps the radius
+	 * on the small image at least 4 pixels.
+	 */
+	static int getFactor(int radius) {
+		int factor = 1;
+		while (factor < MAX_FACTOR && radius / (factor * 2) >= MIN_RADIUS) {
+			factor *= 2;
+		}
+		return factor;
+	}
+
+	/**
+	 * Blurs {@code src} into {@code dst}, on the idle buffers if no other thread is using them.
+	 *
+	 * @param context
+	 *            Used to run the RenderScript kernel, {@code null} to blur in Java.
+	 */
+	static void blur(Context context, Bitmap src, Bitmap dst, int radius) {
+		DownscaledBlur buffers = IDLE.getAndSet(null);
+		if (buffers == null) {
+			buffers = new DownscaledBlur();
+		}
+		try {
+			buffers.run(context, src, dst, radius);
+		} finally {
+			// Also after a failure, so that the kept canvas does not hold the caller's bitmap
+			buffers.canvas.setBitmap(null);
+			if (!IDLE.compareAndSet(null, buffers)) {
+				buffers.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Releases the buffers of a set that is not kept.
+	 */
+	private void recycle() {
+		if (small != null) {
+			small.recycle();
+			small = null;
+		}
+		pixels = null;
+	}
+
+	private void run(Context context, Bitmap src, Bitmap dst, int radius) {
+		int width = src.getWidth();
+		int height = src.getHeight();
+		int factor = getFactor(radius);
+		int smallWidth = Math.max(1, (width + factor - 1) / factor);
+		int smallHeight = Math.max(1, (height + factor - 1) / factor);
+		int smallRadius = Math.max(1, Math.round((float) radius / factor));
+
+		if (small == null || small.getWidth() != smallWidth || small.getHeight() != smallHeight) {
+			if (small != null) {
+				small.recycle();
+			}
+			small = Bitmap.createBitmap(smallWidth, smallHeight, Bitmap.Config.ARGB_8888);
+		}
+		int count = smallWidth * smallHeight;
+		if (pixels == null || pixels.length < count) {
+			pixels = new int[count];
+		}
+
+		// Downscale
+		small.eraseColor(Color.TRANSPARENT);
+		canvas.setBitmap(small);
+		srcRect.set(0, 0, width, height);
+		dstRect.set(0, 0, smallWidth, smallHeight);
+		canvas.drawBitmap(src, srcRect, dstRect, paint);
+
+		// Blur
+		boolean done = false;
+		if (context != null) {
+			try {
+				RenderScriptFilters.get(context).blur(small, small, smallRadius);
+				done = true;
+			}
+			catch (RSRuntimeException e) {
+				QUFactory.QLog.warning("RenderScript unavailable, blurring in Java", e);
+			}
+		}
+		if (!done) {
+			small.copyPixelsToBuffer(IntBuffer.wrap(pixels, 0, count));
+			StackBlur.blur(pixels, smallWidth, smallHeight, smallRadius);
+			small.copyPixelsFromBuffer(IntBuffer.wrap(pixels, 0, count));
+		}
+
+		// Upscale
+		dst.eraseColor(Color.TRANSPARENT);
+		canvas.setBitmap(dst);
+		srcRect.set(0, 0, smallWidth, smallHeight);
+		dstRect.set(0, 0, dst.getWidth(), dst.getHeight());
+		canvas.drawBitmap(small, srcRect, dstRect, paint);
+	}
+}
@@ -0,0 +1,168 @@
+package quickutils.core;
+
+import java.util.Arrays;
+
+/**
+ * Bulk calendar operations over arrays of epoch milliseconds, e.g. to bucket events by day, week or month for charts.
+ * <br/>
+ * Offsets come from the cached {@link ZoneOffsetTable} of the timezone instead of a {@link java.util.Calendar} per
+ * element, and large arrays are split across cores. Source and destination arrays can be the same.
+ */
+public final class EpochArrays {
+
+     /** Below this many elements per band, the work is not worth splitting across threads. */
+     private static final int MIN_BAND = 16 * 1024;
+
+     private static final int HOUR     = 0;
+     private static final int DAY      = 1;
+     private static final int MONTH    = 2;
+
+     private EpochArrays () {
+     }
+
+     /**
+      * Truncates each instant to the start of its hour in the given timezone.
+      *
+      * @param src
+      *             the instants in epoch milliseconds
+      * @param dst
+      *             receives the truncated instants, can be {@code src}
+      * @param count
+      *             the number of instants to process
+      * @param timeZone
+      *             timezone ID (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      */
+     public static void truncateToHour(long[] src, long[] dst, int count, String timeZone) {
+          truncate(src, dst, count, ZoneOffsetTable.get(timeZone), HOUR);
+     }
+
+     /**
+      * Truncates each instant to the local midnight of its day in the given timezone.
+      *
+      * @see #truncateToHour(long[], long[], int, String)
+      */
+     public static void truncateToDay(long[] src, long[] dst, int count, String timeZone) {
+          truncate(src, dst, count, ZoneOffsetTable.get(timeZone), DAY);
+     }
+
+     /**
+      * Truncates each instant to the local midnight of the first day of its month in the given timezone.
+      *
+      * @see #truncateToHour(long[], long[], int, String)
+      */
+     public static void truncateToMonth(long[] src, long[] dst, int count, String timeZone) {
+          truncate(src, dst, count, ZoneOffsetTable.get(timeZone), MONTH);
+     }
+
+     /**
+      * Truncates each instant to the local midnight of the first day of its week in the given timezone.
+      *
+      * @param firstDayOfWeek
+      *             the first day of the weeks, e.g. {@link java.util.Calendar#MONDAY}
+      * @see #truncateToHour(long[], long[], int, String)
+      */
+     public static void truncateToWeek(final long[] src, final long[] dst, int count, String timeZone, final int firstDayOfWeek) {
+          final ZoneOffsetTable table = ZoneOffsetTable.get(timeZone);
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                         long millis = src[i];
+                         long days = EpochMath.floorDiv(millis + table.getOffset(millis), EpochMath.MILLIS_PER_DAY);
+                         days -= EpochMath.floorMod(EpochMath.dayOfWeek(days) - firstDayOfWeek, 7);
+                         dst[i] = toInstant(table, days * EpochMath.MILLIS_PER_DAY);
+                    }
+               }
+          });
+     }
+
+     /**
+      * Computes the day of the week of each instant in the given timezone.
+      *
+      * @param dst
+      *             receives the days of the week, {@link java.util.Calendar#SUNDAY} to {@link java.util.Calendar#SATURDAY}
+      * @see #truncateToHour(long[], long[], int, String)
+      */
+     public static void dayOfWeek(final long[] src, final int[] dst, int count, String timeZone) {
+          final ZoneOffsetTable table = ZoneOffsetTable.get(timeZone);
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                         long millis = src[i];
+                         dst[i] = EpochMath.dayOfWeek(EpochMath.floorDiv(millis + table.getOffset(millis), EpochMath.MILLIS_PER_DAY));
+                    }
+               }
+          });
+     }
+
+     /**
+      * Counts the occurrences of each distinct value, typically of instants truncated by one of the {@code truncateTo}
+      * methods.
+      *
+      * @param buckets
+      *             the values to count, left untouched
+      * @param count
+      *             the number of values
+      * @param keys
+      *             receives the distinct values in increasing order, must hold up to {@code count} values
+      * @param counts
+      *             receives the number of occurrences of each of the {@code keys}
+      * @return the number of distinct values
+      */
+     public static int groupCount(long[] buckets, int count, long[] keys, int[] counts) {
+          long[] sorted = buckets;
+          for (int i = 1; i < count; i++) {
+               if ( buckets[i] < buckets[i - 1] ) {
+                    sorted = Arrays.copyOf(buckets, count);
+                    Arrays.sort(sorted);
+                    break;
+               }
+          }
+          int res = 0;
+          for (int i = 0; i < count; i++) {
+               if ( res > 0 && keys[res - 1] == sorted[i] ) {
+                    counts[res - 1]++;
+               } else {
+                    keys[res] = sorted[i];
+                    counts[res++] = 1;
+               }
+          }
+          return res;
+     }
+
+     private static void truncate(final long[] src, final long[] dst, int count, final ZoneOffsetTable table, final int unit) {
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                         long millis = src[i];
+                         long local = millis + table.getOffset(millis);
+                         switch (unit) {
+                              case HOUR:
+                                   dst[i] = millis - EpochMath.floorMod(local, EpochMath.MILLIS_PER_HOUR);
+                                   break;
+                              case DAY:
+                                   dst[i] = toInstant(table, local - EpochMath.floorMod(local, EpochMath.MILLIS_PER_DAY));
+                                   break;
+                              default:
+                                   int date = EpochMath.civilFromDays(EpochMath.floorDiv(local, EpochMath.MILLIS_PER_DAY));
+                                   long days = EpochMath.daysFromCivil(EpochMath.year(date), EpochMath.month(date), 1);
+                                   dst[i] = toInstant(table, days * EpochMath.MILLIS_PER_DAY);
+                                   break;
+                         }
+                    }
+               }
+          });
+     }
+
+     /**
+      * @return the instant of the given local time
+      */
+     private static long toInstant(ZoneOffsetTable table, long local) {
+          return local - table.getOffsetFromLocal(local);
+     }
+}
@@ -0,0 +1,118 @@
+package quickutils.core;
+
+/**
+ * Calendar arithmetic on epoch values, in closed form: no {@link java.util.Calendar} is allocated.<br/>
+ * Dates use the proleptic Gregorian calendar, days are counted from 1970-01-01 and months are 1..12. Dates are packed
+ * in an int (see {@link #civilFromDays(long)}) so that conversions do not allocate.
+ */
+final class EpochMath {
+
+     static final long MILLIS_PER_SECOND = 1000;
+     static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+     static final long MILLIS_PER_HOUR   = 60 * MILLIS_PER_MINUTE;
+     static final long MILLIS_PER_DAY    = 24 * MILLIS_PER_HOUR;
+
+     private EpochMath () {
+     }
+
+     /**
+      * @return the largest value less than or equal to {@code a / b}, for {@code b > 0}
+      */
+     static long floorDiv(long a, long b) {
+          long q = a / b;
+          return (a % b < 0) ? q - 1 : q;
+     }
+
+     /**
+      * @return {@code a - floorDiv(a, b) * b}, always positive for {@code b > 0}
+      */
+     static long floorMod(long a, long b) {
+          long m = a % b;
+          return m < 0 ? m + b : m;
+     }
+
+     static boolean isLeapYear(int year) {
+          return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+     }
+
+     /**
+      * @param month
+      *             the month 1..12
+      * @return the number of days of the month
+      */
+     static int daysInMonth(int year, int month) {
+          if ( month == 2 ) { return isLeapYear(year) ? 29 : 28; }
+          // 31 days in odd months until July, then in even months
+          return 30 + ((month + (month >> 3)) & 1);
+     }
+
+     /**
+      * @param year
+      *             the year, e.g. 2014
+      * @param month
+      *             the month 1..12
+      * @param day
+      *             the day of the month 1..31
+      * @return the number of days since 1970-01-01
+      */
+     static long daysFromCivil(int year, int month, int day) {
+          // Years start in March, so that the leap day is the last day of the year
+          long y = month <= 2 ? year - 1 : year;
+          long era = floorDiv(y, 400);
+          long yearOfEra = y - era * 400;
+          long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+          long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+          return era * 146097 + dayOfEra - 719468;
+     }
+
+     /**
+      * Same as {@link #daysFromCivil(int, int, int)} for a date of the Julian calendar, where every fourth year is a leap
+      * year.
+      */
+     static long julianDaysFromCivil(int year, int month, int day) {
+          long y = month <= 2 ? year - 1 : year;
+          long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+          // Both calendars agree from 0200-03-01 to 0300-02-28
+          return y * 365 + floorDiv(y, 4) + dayOfYear - 719470;
+     }
+
+     /**
+      * @param days
+      *             the number of days since 1970-01-01
+      * @return the date packed as {@code year << 9 | month << 5 | day}, see {@link #year(int)}, {@link #month(int)} and
+      *         {@link #day(int)}
+      */
+     static int civilFromDays(long days) {
+          days += 719468;
+          long era = floorDiv(days, 146097);
+          long dayOfEra = days - era * 146097;
+          long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+          long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+          long mp = (5 * dayOfYear + 2) / 153;
+          int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+          int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+          int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+          return (year << 9) | (month << 5) | day;
+     }
+
+     /**
+      * @param days
+      *             the number of days since 1970-01-01, a Thursday
+      * @return the day of the week, {@link java.util.Calendar#SUNDAY} to {@link java.util.Calendar#SATURDAY}
+      */
+     static int dayOfWeek(long days) {
+          return (int) floorMod(days + 4, 7) + 1;
+     }
+
+     static int year(int date) {
+          return date >> 9;
+     }
+
+     static int month(int date) {
+          return (date >> 5) & 0xf;
+     }
+
+     static int day(int date) {
+          return date & 0x1f;
+     }
+}
@@ -0,0 +1,147 @@
+package quickutils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+
+
+/**
+ * 64 bit perceptual fingerprints of images: visually similar images (resized, re-encoded, slightly edited...) get
+ * fingerprints differing by few bits, see {@link #distance(long, long)}.<br/>
+ * Files are hashed from a tiny subsampled decode, so hashing costs a fraction of a full decode. The EXIF rotation is
+ * ignored, the stored pixels are hashed.
+ */
+public final class ImageHash {
+
+	public enum Algorithm {
+		/** Difference hash: compares neighbor pixels of a 9x8 grayscale version. Fastest. */
+		DHASH,
+		/** DCT hash: compares the low frequencies of a 32x32 grayscale version to their median. More robust. */
+		PHASH
+	}
+
+	/** Size of the grayscale image the DCT of {@link Algorithm#PHASH} is computed on. */
+	private static final int		PHASH_SIZE	= 32;
+	/** Cosines of the first 8 DCT-II frequencies over {@link #PHASH_SIZE} samples. */
+	private static final double[]	DCT_COS		= new double[8 * PHASH_SIZE];
+	static {
+		for (int u = 0; u < 8; u++) {
+			for (int x = 0; x < PHASH_SIZE; x++) {
+				DCT_COS[u * PHASH_SIZE + x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * PHASH_SIZE));
+			}
+		}
+	}
+
+	private ImageHash() {}
+
+	/**
+	 * @return The number of differing bits of two fingerprints, 0 for identical images. Below 10 images are usually
+	 *         near duplicates.
+	 */
+	public static int distance(long hash1, long hash2) {
+		return Long.bitCount(hash1 ^ hash2);
+	}
+
+	/**
+	 * Fingerprints an image file.
+	 *
+	 * @throws IOException
+	 *             If the file could not be decoded.
+	 */
+	public static long compute(File imageFile, Algorithm algorithm) throws IOException {
+		// Probe the dimensions to decode just above the size the hash works on
+		Point dimensions = ImageUtils.getDimensions(imageFile);
+		if (dimensions.x <= 0 || dimensions.y <= 0) throw new IOException("Could not decode " + imageFile);
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = Math.max(1, Math.min(dimensions.x, dimensions.y) / PHASH_SIZE);
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		Bitmap bitmap = ImageUtils.tryDecodeFile(imageFile, options);
+		if (bitmap == null) throw new IOException("Could not decode " + imageFile);
+		try {
+			return compute(bitmap, algorithm);
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Fingerprints a bitmap, which is left untouched.
+	 */
+	public static long compute(Bitmap bitmap, Algorithm algorithm) {
+		return algorithm == Algorithm.DHASH ? dHash(bitmap) : pHash(bitmap);
+	}
+
+	private static long dHash(Bitmap bitmap) {
+		int[] gray = toGrayscale(bitmap, 9, 8);
+		long hash = 0;
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				hash <<= 1;
+				if (gray[y * 9 + x] < gray[y * 9 + x + 1]) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static long pHash(Bitmap bitmap) {
+		int n = PHASH_SIZE;
+		int[] gray = toGrayscale(bitmap, n, n);
+		// Separable DCT, only the 8x8 lowest frequencies are needed: rows first, then columns
+		double[] rows = new double[n * 8];
+		for (int y = 0; y < n; y++) {
+			for (int u = 0; u < 8; u++) {
+				double sum = 0;
+				for (int x = 0; x < n; x++) {
+					sum += gray[y * n + x] * DCT_COS[u * n + x];
+				}
+				rows[y * 8 + u] = sum;
+			}
+		}
+		double[] dct = new double[64];
+		for (int v = 0; v < 8; v++) {
+			for (int u = 0; u < 8; u++) {
+				double sum = 0;
+				for (int y = 0; y < n; y++) {
+					sum += rows[y * 8 + u] * DCT_COS[v * n + y];
+				}
+				dct[v * 8 + u] = sum;
+			}
+		}
+		// Median of the coefficients, without the DC one which only holds the average brightness
+		double[] sorted = new double[63];
+		System.arraycopy(dct, 1, sorted, 0, 63);
+		Arrays.sort(sorted);
+		double median = sorted[31];
+		long hash = 0;
+		for (int i = 0; i < 64; i++) {
+			hash <<= 1;
+			if (dct[i] > median) {
+				hash |= 1;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @return The luminance (0..255) of the bitmap scaled to the given dimensions.
+	 */
+	private static int[] toGrayscale(Bitmap bitmap, int width, int height) {
+		Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+		int[] pixels = new int[width * height];
+		scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+		if (scaled != bitmap) {
+			scaled.recycle();
+		}
+		for (int i = 0; i < pixels.length; i++) {
+			int color = pixels[i];
+			pixels[i] = (77 * ((color >> 16) & 0xff) + 150 * ((color >> 8) & 0xff) + 29 * (color & 0xff)) >> 8;
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,416 @@
+package quickutils.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Index of the {@link ImageHash perceptual fingerprints} of a set of image files, to find duplicate and near-duplicate
+ * images.<br/>
+ * Fingerprints are kept in a BK-tree, so that looking for the images within a small Hamming distance of a fingerprint
+ * only visits a fraction of the index. The index remembers the length and modification date of each file and only
+ * hashes again the files that changed, it can be saved to and loaded from a compact binary file.<br/>
+ * All the methods are thread-safe.
+ */
+public class ImageHashIndex {
+
+	private static final int				MAGIC		= 0x51494858;	// QIHX
+	private static final int				VERSION		= 1;
+
+	/**
+	 * An indexed file.
+	 */
+	public static class Entry {
+
+		public final File	file;
+		public final long	length;
+		public final long	lastModified;
+		public final long	hash;
+
+		Entry(File file, long length, long lastModified, long hash) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		@Override public String toString() {
+			return file + " " + Long.toHexString(hash);
+		}
+	}
+
+	/**
+	 * BK-tree node: all the children in the subtree at {@code childDistances[i]} are at exactly that distance of
+	 * {@code hash}. Nodes whose entries were all removed are kept to route the searches.
+	 */
+	private static class Node {
+
+		final long				hash;
+		final List<Entry>		entries			= new ArrayList<Entry>(1);
+		int[]					childDistances;
+		Node[]					children;
+		int						childCount;
+
+		Node(long hash) {
+			this.hash = hash;
+		}
+
+		Node getChild(int distance) {
+			for (int i = 0; i < childCount; i++) {
+				if (childDistances[i] == distance) return children[i];
+			}
+			return null;
+		}
+
+		void addChild(int distance, Node child) {
+			if (children == null) {
+				childDistances = new int[2];
+				children = new Node[2];
+			} else if (childCount == children.length) {
+				int[] distances = new int[childCount * 2];
+				System.arraycopy(childDistances, 0, distances, 0, childCount);
+				childDistances = distances;
+				Node[] nodes = new Node[childCount * 2];
+				System.arraycopy(children, 0, nodes, 0, childCount);
+				children = nodes;
+			}
+			childDistances[childCount] = distance;
+			children[childCount++] = child;
+		}
+	}
+
+	private final ImageHash.Algorithm		algorithm;
+	private final Map<String, Entry>		entries		= new HashMap<String, Entry>();
+	private Node							root;
+	private int								nodeCount;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public ImageHashIndex(ImageHash.Algorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public ImageHash.Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The entry of the given file, or {@code null} if it is not indexed.
+	 */
+	public synchronized Entry get(File file) {
+		return entries.get(file.getPath());
+	}
+
+	/**
+	 * Indexes the given file, hashing it only if it is new or its length or modification date changed.
+	 *
+	 * @return {@code true} if the file was hashed.
+	 * @throws IOException
+	 *             If the file could not be decoded, it is then removed from the index.
+	 */
+	public boolean update(File file) throws IOException {
+		if (isUpToDate(file)) return false;
+		long length = file.length();
+		long lastModified = file.lastModified();
+		long hash;
+		try {
+			hash = ImageHash.compute(file, algorithm);
+		}
+		catch (IOException e) {
+			remove(file);
+			throw e;
+		}
+		put(new Entry(file, length, lastModified, hash));
+		return true;
+	}
+
+	/**
+	 * Makes the index match the given files: entries of other files are removed, new and changed files are hashed in
+	 * parallel. Files which could not be decoded are left out of the index.
+	 *
+	 * @return The number of files hashed.
+	 */
+	public int update(Collection<File> files) {
+		Set<String> paths = new HashSet<String>();
+		final List<File> changed = new ArrayList<File>();
+		for (File file : files) {
+			paths.add(file.getPath());
+			if (!isUpToDate(file)) {
+				changed.add(file);
+			}
+		}
+		synchronized (this) {
+			List<String> removed = new ArrayList<String>();
+			for (String path : entries.keySet()) {
+				if (!paths.contains(path)) {
+					removed.add(path);
+				}
+			}
+			for (String path : removed) {
+				remove(new File(path));
+			}
+		}
+		QUFactory.QLog.debug("update files=" + files.size() + " changed=" + changed.size());
+		// Decoding dominates, so even a single file is worth its own core: the files are split in up to one
+		// contiguous band per core
+		final Entry[] hashed = new Entry[changed.size()];
+		ParallelLoop.run(changed.size(), 1, new ParallelLoop.Body() {
+
+			@Override public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					File file = changed.get(i);
+					try {
+						long length = file.length();
+						long lastModified = file.lastModified();
+						hashed[i] = new Entry(file, length, lastModified, ImageHash.compute(file, algorithm));
+					}
+					catch (IOException e) {
+						QUFactory.QLog.debug("update Could not hash " + file, e);
+					}
+					catch (OutOfMemoryError e) {
+						QUFactory.QLog.debug("update Could not hash " + file, e);
+					}
+				}
+			}
+		});
+		int count = 0;
+		synchronized (this) {
+			for (int i = 0; i < hashed.length; i++) {
+				if (hashed[i] != null) {
+					put(hashed[i]);
+					count++;
+				} else {
+					remove(changed.get(i));
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Removes a file from the index.
+	 *
+	 * @return {@code true} if the file was indexed.
+	 */
+	public synchronized boolean remove(File file) {
+		Entry entry = entries.remove(file.getPath());
+		if (entry == null) return false;
+		Node node = find(entry.hash);
+		node.entries.remove(entry);
+		if (entries.size() < nodeCount / 2) {
+			// Too many empty nodes slow the searches down
+			rebuild();
+		}
+		return true;
+	}
+
+	/**
+	 * @param hash
+	 *            The fingerprint to look for, from {@link ImageHash#compute(File, ImageHash.Algorithm)} with the
+	 *            algorithm of the index.
+	 * @param maxDistance
+	 *            The maximum number of differing bits, 0 for exact duplicates.
+	 * @return The entries within {@code maxDistance} of the fingerprint.
+	 */
+	public synchronized List<Entry> findSimilar(long hash, int maxDistance) {
+		List<Entry> res = new ArrayList<Entry>();
+		if (root == null) return res;
+		List<Node> toVisit = new ArrayList<Node>();
+		toVisit.add(root);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.remove(toVisit.size() - 1);
+			int distance = ImageHash.distance(hash, node.hash);
+			if (distance <= maxDistance) {
+				res.addAll(node.entries);
+			}
+			// Triangle inequality: only the subtrees at distance +- maxDistance can hold matches
+			for (int i = 0; i < node.childCount; i++) {
+				if (Math.abs(node.childDistances[i] - distance) <= maxDistance) {
+					toVisit.add(node.children[i]);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Same as {@link #findSimilar(long, int)}, for the fingerprint of the given file, which does not need to be indexed.
+	 *
+	 * @throws IOException
+	 *             If the file could not be decoded.
+	 */
+	public List<Entry> findSimilar(File file, int maxDistance) throws IOException {
+		Entry entry = get(file);
+		long hash = entry != null && isUpToDate(file) ? entry.hash : ImageHash.compute(file, algorithm);
+		return findSimilar(hash, maxDistance);
+	}
+
+	/**
+	 * @param maxDistance
+	 *            The maximum number of differing bits, 0 for exact duplicates.
+	 * @return The groups of at least 2 images within {@code maxDistance} of each other (transitively).
+	 */
+	public synchronized List<List<Entry>> findDuplicates(int maxDistance) {
+		List<List<Entry>> res = new ArrayList<List<Entry>>();
+		Set<Entry> grouped = new HashSet<Entry>();
+		for (Entry entry : entries.values()) {
+			if (grouped.contains(entry)) continue;
+			List<Entry> group = new ArrayList<Entry>();
+			List<Entry> toVisit = new ArrayList<Entry>();
+			toVisit.add(entry);
+			grouped.add(entry);
+			while (!toVisit.isEmpty()) {
+				Entry current = toVisit.remove(toVisit.size() - 1);
+				group.add(current);
+				for (Entry similar : findSimilar(current.hash, maxDistance)) {
+					if (grouped.add(similar)) {
+						toVisit.add(similar);
+					}
+				}
+			}
+			if (group.size() > 1) {
+				res.add(group);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Writes the index to the given file, atomically replacing it.
+	 *
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public synchronized void save(File indexFile) throws IOException {
+		QUFactory.QLog.debug("save indexFile=" + indexFile + " size=" + entries.size());
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		boolean renamed = false;
+		try {
+			FileOutputStream fileOutputStream = new FileOutputStream(tmpFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeByte(algorithm.ordinal());
+				out.writeInt(entries.size());
+				for (Entry entry : entries.values()) {
+					out.writeUTF(entry.file.getPath());
+					out.writeLong(entry.length);
+					out.writeLong(entry.lastModified);
+					out.writeLong(entry.hash);
+				}
+				out.flush();
+				fileOutputStream.getFD().sync();
+			} finally {
+				SDcardUtils.closeSilently(out);
+			}
+			renamed = tmpFile.renameTo(indexFile);
+			if (!renamed) throw new IOException("Could not rename " + tmpFile + " to " + indexFile);
+		} finally {
+			if (!renamed) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #save(File)}.
+	 *
+	 * @throws IOException
+	 *             If the file could not be read or is not an index.
+	 */
+	public static ImageHashIndex load(File indexFile) throws IOException {
+		QUFactory.QLog.debug("load indexFile=" + indexFile);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) throw new IOException("Not an image hash index: " + indexFile);
+			int algorithm = in.readByte();
+			if (algorithm < 0 || algorithm >= ImageHash.Algorithm.values().length) throw new IOException("Unknown algorithm in " + indexFile);
+			ImageHashIndex res = new ImageHashIndex(ImageHash.Algorithm.values()[algorithm]);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				res.put(new Entry(new File(in.readUTF()), in.readLong(), in.readLong(), in.readLong()));
+			}
+			return res;
+		} finally {
+			SDcardUtils.closeSilently(in);
+		}
+	}
+
+	private boolean isUpToDate(File file) {
+		Entry entry = get(file);
+		return entry != null && entry.length == file.length() && entry.lastModified == file.lastModified();
+	}
+
+	private synchronized void put(Entry entry) {
+		Entry previous = entries.put(entry.file.getPath(), entry);
+		if (previous != null) {
+			find(previous.hash).entries.remove(previous);
+		}
+		insert(entry);
+	}
+
+	private void insert(Entry entry) {
+		if (root == null) {
+			root = new Node(entry.hash);
+			root.entries.add(entry);
+			nodeCount = 1;
+			return;
+		}
+		Node node = root;
+		while (true) {
+			int distance = ImageHash.distance(entry.hash, node.hash);
+			if (distance == 0) {
+				node.entries.add(entry);
+				return;
+			}
+			Node child = node.getChild(distance);
+			if (child == null) {
+				child = new Node(entry.hash);
+				child.entries.add(entry);
+				node.addChild(distance, child);
+				nodeCount++;
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * @return The node holding the given fingerprint, which must be in the tree.
+	 */
+	private Node find(long hash) {
+		Node node = root;
+		while (true) {
+			int distance = ImageHash.distance(hash, node.hash);
+			if (distance == 0) return node;
+			node = node.getChild(distance);
+		}
+	}
+
+	private void rebuild() {
+		root = null;
+		nodeCount = 0;
+		for (Entry entry : entries.values()) {
+			insert(entry);
+		}
+	}
+}
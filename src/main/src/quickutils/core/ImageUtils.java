@@ -1,13 +1,19 @@
 package quickutils.core;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
@@ -24,11 +30,15 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.ExifInterface;
 import android.os.Build;
+import android.support.v8.renderscript.RSRuntimeException;
 import android.view.Display;
 
 
 @SuppressLint("NewApi") public class ImageUtils {
 
+	/** Largest side of the pixels a blur hash is computed on. */
+	private static final int	BLUR_HASH_SIDE	= 32;
+
 	ImageUtils() {}
 
 	/**
@@ -72,36 +82,39 @@ import android.view.Display;
 
 	/**
 	 * Returns an immutable version of the given bitmap.<br/>
-	 * The given bitmap is recycled. A temporary file is used (using {@link File#createTempFile(String, String)}) to avoid
-	 * allocating twice the needed memory.
+	 * The given bitmap is recycled. Its pixels are spilled to a memory mapped scratch file (kept open between calls, see
+	 * {@link #releaseScratchMapping()}) to avoid allocating twice the needed memory.
 	 */
 	public static Bitmap asImmutable(Bitmap bitmap) throws IOException {
-		// This is the file going to use temporally to dump the bitmap bytes
-		File tmpFile = File.createTempFile(String.valueOf(System.currentTimeMillis()), null);
-		QUFactory.QLog.debug("getImmutable tmpFile=" + tmpFile);
-		// Open it as an RandomAccessFile
-		RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
-		// Get the width and height of the source bitmap
 		int width = bitmap.getWidth();
 		int height = bitmap.getHeight();
-		// Dump the bytes to the file.
-		// This assumes the source bitmap is loaded using options.inPreferredConfig = Config.ARGB_8888 (hence the value of 4 bytes
-		// per pixel)
-		FileChannel channel = randomAccessFile.getChannel();
-		MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, width * height * 4);
-		bitmap.copyPixelsToBuffer(buffer);
-		// Recycle the source bitmap, this will be no longer used
-		bitmap.recycle();
-		// Create a new mutable bitmap to load the bitmap from the file
-		bitmap = Bitmap.createBitmap(width, height, bitmap.getConfig());
-		// Load it back from the temporary buffer
-		buffer.position(0);
-		bitmap.copyPixelsFromBuffer(buffer);
-		// Cleanup
-		channel.close();
-		randomAccessFile.close();
-		tmpFile.delete();
-		return bitmap;
+		Bitmap.Config config = bitmap.getConfig();
+		// Size of the pixels in the bitmap's own config (e.g. 2 bytes per pixel for RGB_565)
+		int byteCount = bitmap.getRowBytes() * height;
+		QUFactory.QLog.debug("asImmutable width=" + width + " height=" + height + " config=" + config + " byteCount=" + byteCount);
+		ScratchMapping scratch = ScratchMapping.obtain();
+		try {
+			// Dump the bytes to the scratch file
+			ByteBuffer buffer = scratch.map(byteCount);
+			bitmap.copyPixelsToBuffer(buffer);
+			// Recycle the source bitmap, this will be no longer used
+			bitmap.recycle();
+			// Create a new mutable bitmap to load the bitmap from the file
+			bitmap = Bitmap.createBitmap(width, height, config);
+			// Load it back from the scratch buffer
+			buffer.rewind();
+			bitmap.copyPixelsFromBuffer(buffer);
+			return bitmap;
+		} finally {
+			scratch.recycle();
+		}
+	}
+
+	/**
+	 * Closes the idle scratch file kept by {@link #asImmutable(Bitmap)}, e.g. when done with a batch of bitmaps.
+	 */
+	public static void releaseScratchMapping() {
+		ScratchMapping.release();
 	}
 
 	/**
@@ -204,51 +217,247 @@ import android.view.Display;
 	 * @return A small version of the bitmap, or (@code null} if the given bitmap could not be decoded.
 	 */
 	public static Bitmap createThumbnail(File bitmapFile, int maxWidth, int maxHeight) {
+		return createThumbnail(bitmapFile, maxWidth, maxHeight, null);
+	}
+
+	/**
+	 * Same as {@link #createThumbnail(File, int, int)}, drawing the thumbnail into a bitmap taken from the given pool.
+	 * <br/>
+	 * The image is decoded at the largest sample size that keeps it above the wanted dimensions, then rotated and scaled
+	 * to its exact size in a single draw, so no full size or intermediate rotated copy is ever allocated.
+	 *
+	 * @param pool
+	 *            The pool providing the thumbnail's bitmap, which can be {@link BitmapPool#put(Bitmap) given back} once
+	 *            no longer displayed. Can be {@code null} to allocate a new bitmap.
+	 */
+	public static Bitmap createThumbnail(File bitmapFile, int maxWidth, int maxHeight, BitmapPool pool) {
 		QUFactory.QLog.debug("createThumbnail imageFile=" + bitmapFile + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight);
 		// Get exif rotation
 		int rotation = getExifRotation(bitmapFile);
 		// Determine optimal inSampleSize
 		Point originalDimensions = getDimensions(bitmapFile);
-		int width = originalDimensions.x;
-		int height = originalDimensions.y;
-		int inSampleSize = 1;
-		if (rotation == 90 || rotation == 270) {
-			// In these 2 cases we invert the measured dimensions because the bitmap is rotated
-			width = originalDimensions.y;
-			height = originalDimensions.x;
-		}
-		int widthRatio = width / maxWidth;
-		int heightRatio = height / maxHeight;
-		// Take the max, because we don't care if one of the returned thumbnail's side is smaller
-		// than the specified maxWidth/maxHeight.
-		inSampleSize = Math.max(widthRatio, heightRatio);
-		QUFactory.QLog.debug("createThumbnail using inSampleSize=" + inSampleSize);
 		BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inSampleSize = inSampleSize;
-		Bitmap res = tryDecodeFile(bitmapFile, options);
-		if (res == null) {
+		options.inSampleSize = getThumbnailSampleSize(originalDimensions.x, originalDimensions.y, rotation, maxWidth, maxHeight);
+		QUFactory.QLog.debug("createThumbnail using inSampleSize=" + options.inSampleSize);
+		Bitmap decoded = tryDecodeFile(bitmapFile, options);
+		if (decoded == null) {
 			QUFactory.QLog.debug("createThumbnail Could not decode file, returning null");
 			return null;
 		}
-		// Rotate if necessary
-		if (rotation != 0) {
-			QUFactory.QLog.debug("createThumbnail rotating thumbnail");
-			Matrix matrix = new Matrix();
-			matrix.postRotate(rotation);
-			Bitmap rotatedBitmap = null;
-			try {
-				rotatedBitmap = Bitmap.createBitmap(res, 0, 0, res.getWidth(), res.getHeight(), matrix, false);
-				res.recycle();
-				res = rotatedBitmap;
-			}
-			catch (OutOfMemoryError exception) {
-				QUFactory.QLog.debug("createThumbnail Could not rotate bitmap, keeping original orientation", exception);
-			}
+		Bitmap res;
+		try {
+			res = drawThumbnail(decoded, rotation, maxWidth, maxHeight, pool);
+		}
+		catch (OutOfMemoryError exception) {
+			QUFactory.QLog.debug("createThumbnail Could not rotate bitmap, keeping original orientation", exception);
+			res = decoded;
 		}
 		QUFactory.QLog.debug("createThumbnail res width=" + res.getWidth() + " height=" + res.getHeight());
 		return res;
 	}
 
+	/**
+	 * Decodes a thumbnail from the given encoded image, rotated by the given EXIF rotation and scaled down to fit in the
+	 * given max dimensions.
+	 *
+	 * @return The thumbnail, or {@code null} if the data could not be decoded.
+	 */
+	static Bitmap decodeThumbnail(byte[] data, int rotation, int maxWidth, int maxHeight) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = getThumbnailSampleSize(options.outWidth, options.outHeight, rotation, maxWidth, maxHeight);
+		Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (decoded == null) return null;
+		return drawThumbnail(decoded, rotation, maxWidth, maxHeight, null);
+	}
+
+	/**
+	 * @return The largest power of two sample size keeping the rotated image at least as large as the max dimensions on
+	 *         one side. Decoders round other sample sizes down to a power of two anyway.
+	 */
+	private static int getThumbnailSampleSize(int width, int height, int rotation, int maxWidth, int maxHeight) {
+		if (rotation == 90 || rotation == 270) {
+			// In these 2 cases we invert the measured dimensions because the bitmap is rotated
+			int tmp = width;
+			width = height;
+			height = tmp;
+		}
+		// Take the max, because we don't care if one of the returned thumbnail's side is smaller
+		// than the specified maxWidth/maxHeight.
+		return Integer.highestOneBit(Math.max(1, Math.max(width / maxWidth, height / maxHeight)));
+	}
+
+	/**
+	 * Rotates and scales the decoded image to fit in the max dimensions in a single draw, and recycles it.
+	 *
+	 * @return The thumbnail, {@code decoded} itself if it needed neither rotation nor scaling.
+	 */
+	private static Bitmap drawThumbnail(Bitmap decoded, int rotation, int maxWidth, int maxHeight, BitmapPool pool) {
+		// The scale comes from the decoded dimensions, not from the original ones divided by the sample size, which can
+		// differ from what the decoder actually produced
+		boolean swap = rotation == 90 || rotation == 270;
+		int rotatedWidth = swap ? decoded.getHeight() : decoded.getWidth();
+		int rotatedHeight = swap ? decoded.getWidth() : decoded.getHeight();
+		float scale = Math.min(1f, Math.min((float) maxWidth / rotatedWidth, (float) maxHeight / rotatedHeight));
+		if (rotation == 0 && scale == 1f) return decoded;
+		int width = Math.max(1, Math.round(rotatedWidth * scale));
+		int height = Math.max(1, Math.round(rotatedHeight * scale));
+		Bitmap.Config config = decoded.getConfig() != null ? decoded.getConfig() : Bitmap.Config.ARGB_8888;
+		Bitmap res = pool != null ? pool.get(width, height, config) : Bitmap.createBitmap(width, height, config);
+		// Rotate around the center, then scale to the exact rounded dimensions
+		Matrix matrix = new Matrix();
+		matrix.postTranslate(-decoded.getWidth() / 2f, -decoded.getHeight() / 2f);
+		matrix.postRotate(rotation);
+		matrix.postScale((float) width / rotatedWidth, (float) height / rotatedHeight);
+		matrix.postTranslate(width / 2f, height / 2f);
+		new Canvas(res).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+		decoded.recycle();
+		return res;
+	}
+
+	/**
+	 * Starts generating thumbnails for the given files on background threads, each thumbnail being written in the
+	 * output directory under the name of its source file, with the extension of the format it is encoded to (numbered
+	 * when two sources give the same name).<br/>
+	 * Reading, decoding and writing run as separate stages, see {@link ThumbnailPipeline} to tune them.
+	 *
+	 * @param files
+	 *            The source image files.
+	 * @param outputDirectory
+	 *            The existing directory the thumbnails are written to.
+	 * @param maxWidth
+	 *            The wanted maximum width of the thumbnails.
+	 * @param maxHeight
+	 *            The wanted maximum height of the thumbnails.
+	 * @param callback
+	 *            Receives the result of each file, can be {@code null}.
+	 * @return The started pipeline, which can be used to cancel the batch or wait for it.
+	 */
+	public static ThumbnailPipeline createThumbnails(Collection<File> files, File outputDirectory, int maxWidth, int maxHeight, ThumbnailPipeline.Callback callback) {
+		ThumbnailPipeline pipeline = new ThumbnailPipeline(outputDirectory, maxWidth, maxHeight);
+		pipeline.setCallback(callback);
+		pipeline.start(files);
+		return pipeline;
+	}
+
+	/**
+	 * Computes the perceptual fingerprint of an image file from a tiny subsampled decode, to find near-duplicate images
+	 * with {@link ImageHash#distance(long, long)} or an {@link ImageHashIndex}.
+	 *
+	 * @param imageFile
+	 *            The image file to fingerprint.
+	 * @param algorithm
+	 *            {@link ImageHash.Algorithm#DHASH} is faster, {@link ImageHash.Algorithm#PHASH} more robust to edits.
+	 * @return The 64 bit fingerprint.
+	 * @throws IOException
+	 *             If the file could not be decoded.
+	 */
+	public static long computeImageHash(File imageFile, ImageHash.Algorithm algorithm) throws IOException {
+		return ImageHash.compute(imageFile, algorithm);
+	}
+
+	/**
+	 * Extracts the dominant colors of an image, e.g. to paint the placeholder of a list item.
+	 *
+	 * @param cacheKey
+	 *            The key the palette is cached under, e.g. the key of the thumbnail. Can be {@code null} to skip the
+	 *            cache.
+	 * @param thumbnail
+	 *            The image, usually a thumbnail. It is left untouched.
+	 * @param maxColors
+	 *            The maximum number of colors to return.
+	 * @return The dominant colors, most represented first.
+	 * @see ColorPalette
+	 */
+	public static int[] getPalette(String cacheKey, Bitmap thumbnail, int maxColors) {
+		return cacheKey == null ? ColorPalette.extract(thumbnail, maxColors) : ColorPalette.get(cacheKey, thumbnail, maxColors);
+	}
+
+	/**
+	 * Encodes a bitmap into a compact placeholder string, see {@link BlurHash}.<br/>
+	 * The bitmap is scaled down to 32 pixels first, which gives the same hash for a fraction of the cost.
+	 *
+	 * @param bitmap
+	 *            The image, left untouched.
+	 * @param componentsX
+	 *            Number of horizontal frequencies 1..9, 4 is usual.
+	 * @param componentsY
+	 *            Number of vertical frequencies 1..9, 3 is usual.
+	 * @return The placeholder string.
+	 */
+	public static String encodeBlurHash(Bitmap bitmap, int componentsX, int componentsY) {
+		float scale = Math.min(1f, (float) BLUR_HASH_SIDE / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+		int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+		int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+		Bitmap small = Bitmap.createScaledBitmap(bitmap, width, height, true);
+		int[] pixels = new int[width * height];
+		small.getPixels(pixels, 0, width, 0, 0, width, height);
+		if (small != bitmap) {
+			small.recycle();
+		}
+		return BlurHash.encode(pixels, width, height, componentsX, componentsY);
+	}
+
+	/**
+	 * Same as {@link #encodeBlurHash(Bitmap, int, int)}, from a tiny subsampled decode of the given file.
+	 *
+	 * @throws IOException
+	 *             If the file could not be decoded.
+	 */
+	public static String encodeBlurHash(File imageFile, int componentsX, int componentsY) throws IOException {
+		Point dimensions = getDimensions(imageFile);
+		if (dimensions.x <= 0 || dimensions.y <= 0) throw new IOException("Could not decode " + imageFile);
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = Math.max(1, Math.max(dimensions.x, dimensions.y) / BLUR_HASH_SIDE);
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		Bitmap bitmap = tryDecodeFile(imageFile, options);
+		if (bitmap == null) throw new IOException("Could not decode " + imageFile);
+		try {
+			return encodeBlurHash(bitmap, componentsX, componentsY);
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Decodes a placeholder string into a small bitmap, to be displayed stretched until the real image is loaded.
+	 *
+	 * @param hash
+	 *            The placeholder string, from {@link #encodeBlurHash(Bitmap, int, int)}.
+	 * @param width
+	 *            Width of the bitmap, e.g. 32.
+	 * @param height
+	 *            Height of the bitmap, e.g. 32.
+	 * @return The placeholder bitmap.
+	 * @throws IllegalArgumentException
+	 *             If the hash is not valid.
+	 */
+	public static Bitmap decodeBlurHash(String hash, int width, int height) {
+		int[] pixels = BlurHash.decode(hash, width, height, 1f, null);
+		return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	/**
+	 * Opens the given image for tiled decoding: instead of decoding the whole image like
+	 * {@link #tryDecodeFile(File, android.graphics.BitmapFactory.Options)}, only the visible tiles are decoded, at the
+	 * sample size matching the current zoom, so that very large images can be zoomed into in bounded memory.
+	 *
+	 * @param imageFile
+	 *            The JPEG or PNG file to decode.
+	 * @param tileSize
+	 *            Size in pixels of the side of a decoded tile (e.g. 256).
+	 * @param maxCacheBytes
+	 *            Maximum number of bytes of decoded tiles kept in memory.
+	 * @return The tiled decoder, to {@link TiledBitmapDecoder#recycle() recycle} when no longer needed.
+	 * @throws IOException
+	 *             If the image could not be opened.
+	 */
+	public static TiledBitmapDecoder createTiledDecoder(File imageFile, int tileSize, int maxCacheBytes) throws IOException {
+		return new TiledBitmapDecoder(imageFile, tileSize, maxCacheBytes);
+	}
+
 	/**
 	 * Convert drawable resource to bitmap
 	 * 
@@ -297,6 +506,13 @@ import android.view.Display;
 	 * @return
 	 */
 	public static File saveBitmapDownscaled(Bitmap bitmap, String filename, String path, boolean recycle, int maxWidth, int maxHeight) {
+		return saveBitmapDownscaled(bitmap, filename, path, recycle, maxWidth, maxHeight, new EncodeOptions(EncodeOptions.Format.PNG, 90));
+	}
+
+	/**
+	 * Same as {@link #saveBitmapDownscaled(Bitmap, String, String, boolean, int, int)}, encoding with the given options.
+	 */
+	public static File saveBitmapDownscaled(Bitmap bitmap, String filename, String path, boolean recycle, int maxWidth, int maxHeight, EncodeOptions options) {
 		float heightScaleFactor = 1;
 		float widthScaleFactor = 1;
 		float scaleFactor = 1;
@@ -311,8 +527,15 @@ import android.view.Display;
 		if (heightScaleFactor < 1 || widthScaleFactor < 1) {
 			scaleFactor = MathUtils.min(heightScaleFactor, widthScaleFactor);
 		}
-		bitmap = Bitmap.createScaledBitmap(bitmap, (int) (bitmap.getWidth() * scaleFactor), (int) (bitmap.getHeight() * scaleFactor), true);
-		return saveBitmap(bitmap, filename, path, recycle);
+		if (scaleFactor == 1) return saveBitmap(bitmap, filename, path, recycle, options);
+		Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, (int) (bitmap.getWidth() * scaleFactor)), Math.max(1, (int) (bitmap.getHeight() * scaleFactor)), true);
+		if (scaled == bitmap) return saveBitmap(bitmap, filename, path, recycle, options);
+		if (recycle) {
+			// The source is no longer needed, free it before encoding
+			bitmap.recycle();
+		}
+		// The scaled copy is ours, always free it
+		return saveBitmap(scaled, filename, path, true, options);
 	}
 
 	/**
@@ -323,24 +546,21 @@ import android.view.Display;
 	 * @return
 	 */
 	public static File saveBitmap(Bitmap bitmap, String filename, String path, boolean recycle) {
-		FileOutputStream out = null;
+		return saveBitmap(bitmap, filename, path, recycle, new EncodeOptions(EncodeOptions.Format.PNG, 90));
+	}
+
+	/**
+	 * Same as {@link #saveBitmap(Bitmap, String, String, boolean)}, encoding with the given options.
+	 *
+	 * @return The written file, or {@code null} if the bitmap could not be saved.
+	 */
+	public static File saveBitmap(Bitmap bitmap, String filename, String path, boolean recycle, EncodeOptions options) {
 		try {
-			File f = new File(path, filename);
-			if (!f.exists()) {
-				f.createNewFile();
-			}
-			out = new FileOutputStream(f);
-			if (bitmap.compress(Bitmap.CompressFormat.PNG, 90, out)) {
-				return f;
-			}
+			return encodeBitmap(bitmap, new File(path, filename), options).file;
 		}
 		catch (Exception e) {
 			QUFactory.QLog.error("Could not save bitmap", e);
 		} finally {
-			try {
-				out.close();
-			}
-			catch (Throwable ignore) {}
 			if (recycle) {
 				bitmap.recycle();
 			}
@@ -348,6 +568,206 @@ import android.view.Display;
 		return null;
 	}
 
+	/**
+	 * Options of {@link ImageUtils#encodeBitmap(Bitmap, File, EncodeOptions)}.
+	 */
+	public static class EncodeOptions {
+
+		public enum Format {
+			/** JPEG for opaque bitmaps, PNG (or WebP where it supports alpha) for bitmaps with alpha. */
+			AUTO,
+			JPEG,
+			WEBP,
+			/** Lossless, the quality is ignored. */
+			PNG
+		}
+
+		/** The format to encode to, default is {@link Format#AUTO}. */
+		public Format	format		= Format.AUTO;
+		/** Quality hint 0..100 for lossy formats, default is 85. */
+		public int		quality		= 85;
+		/** Size of the output buffer, default is 64KB. */
+		public int		bufferSize	= 64 * 1024;
+
+		public EncodeOptions() {}
+
+		public EncodeOptions(Format format, int quality) {
+			this.format = format;
+			this.quality = quality;
+		}
+
+		/**
+		 * @return The compress format used for the given bitmap.
+		 */
+		public Bitmap.CompressFormat getCompressFormat(Bitmap bitmap) {
+			switch (format) {
+				case JPEG:
+					return Bitmap.CompressFormat.JPEG;
+				case WEBP:
+					return Bitmap.CompressFormat.WEBP;
+				case PNG:
+					return Bitmap.CompressFormat.PNG;
+				default:
+					if (!bitmap.hasAlpha()) return Bitmap.CompressFormat.JPEG;
+					// WebP only encodes alpha since JB MR2
+					return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.PNG;
+			}
+		}
+
+		/**
+		 * @return The file name extension of the given format, without the dot.
+		 */
+		public static String getExtension(Bitmap.CompressFormat format) {
+			switch (format) {
+				case JPEG:
+					return "jpg";
+				case WEBP:
+					return "webp";
+				default:
+					return "png";
+			}
+		}
+	}
+
+	/**
+	 * Result of {@link ImageUtils#encodeBitmap(Bitmap, File, EncodeOptions)}.
+	 */
+	public static class EncodeResult {
+
+		/** The written file. */
+		public final File					file;
+		/** The format actually used. */
+		public final Bitmap.CompressFormat	format;
+		/** Size of the written file in bytes. */
+		public final long					size;
+		/** Time spent encoding and writing, in milliseconds. */
+		public final long					timeMillis;
+
+		EncodeResult(File file, Bitmap.CompressFormat format, long size, long timeMillis) {
+			this.file = file;
+			this.format = format;
+			this.size = size;
+			this.timeMillis = timeMillis;
+		}
+	}
+
+	/**
+	 * Encodes the given bitmap to the given file through a buffered stream.<br/>
+	 * The bitmap is first written to a temporary file next to the destination, synced to disk and then renamed over the
+	 * destination, so that a crash in the middle of the write never leaves a truncated image behind.
+	 *
+	 * @param bitmap
+	 *            The bitmap to encode, it is not recycled.
+	 * @param file
+	 *            The file to write, it is replaced if it exists.
+	 * @param options
+	 *            The encoding options, {@code null} for the defaults.
+	 * @return The encoded size and the time it took.
+	 * @throws IOException
+	 *             If the bitmap could not be encoded or written.
+	 */
+	public static EncodeResult encodeBitmap(Bitmap bitmap, File file, EncodeOptions options) throws IOException {
+		if (options == null) {
+			options = new EncodeOptions();
+		}
+		long start = System.nanoTime();
+		Bitmap.CompressFormat format = options.getCompressFormat(bitmap);
+		// createTempFile needs a prefix of at least 3 characters, and keeps concurrent writes of the same file apart
+		File tmpFile = File.createTempFile(file.getName() + ".part", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean renamed = false;
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tmpFile);
+			OutputStream out = new BufferedOutputStream(fileOut, options.bufferSize);
+			try {
+				if (!bitmap.compress(format, options.quality, out)) throw new IOException("Could not encode bitmap to " + format);
+				out.flush();
+				fileOut.getFD().sync();
+			} finally {
+				SDcardUtils.closeSilently(out);
+			}
+			renamed = tmpFile.renameTo(file);
+			if (!renamed) throw new IOException("Could not rename " + tmpFile + " to " + file);
+		} finally {
+			if (!renamed) {
+				tmpFile.delete();
+			}
+		}
+		EncodeResult res = new EncodeResult(file, format, file.length(), (System.nanoTime() - start) / 1000000);
+		QUFactory.QLog.debug("encodeBitmap file=" + file + " format=" + format + " size=" + res.size + " timeMillis=" + res.timeMillis);
+		return res;
+	}
+
+	/**
+	 * Listener of {@link ImageUtils#encodeBitmapAsync(Bitmap, File, EncodeOptions, boolean, OnBitmapEncodedListener)},
+	 * called on the write-behind thread.
+	 */
+	public interface OnBitmapEncodedListener {
+
+		void onBitmapEncoded(EncodeResult result);
+
+		void onBitmapEncodeFailed(File file, IOException error);
+	}
+
+	/**
+	 * Single background thread the asynchronous writes are queued on, created on first use.
+	 */
+	private static class WriteBehindHolder {
+
+		static final ExecutorService	EXECUTOR	= Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ImageUtils-write");
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues the encoding of the given bitmap with {@link #encodeBitmap(Bitmap, File, EncodeOptions)} on a background
+	 * thread, so that the caller (e.g. the UI thread) never waits for the compression or the disk.<br/>
+	 * Writes are performed one at a time in the order they were queued. The bitmap must not be modified nor recycled by
+	 * the caller until it has been written.
+	 *
+	 * @param bitmap
+	 *            The bitmap to encode.
+	 * @param file
+	 *            The file to write, it is replaced if it exists.
+	 * @param options
+	 *            The encoding options, {@code null} for the defaults.
+	 * @param recycle
+	 *            {@code true} to recycle the bitmap once written.
+	 * @param listener
+	 *            Notified of the result, can be {@code null}.
+	 * @return A future of the result, which can be used to wait for the write.
+	 */
+	public static Future<EncodeResult> encodeBitmapAsync(final Bitmap bitmap, final File file, final EncodeOptions options, final boolean recycle, final OnBitmapEncodedListener listener) {
+		return WriteBehindHolder.EXECUTOR.submit(new Callable<EncodeResult>() {
+
+			@Override public EncodeResult call() throws IOException {
+				try {
+					EncodeResult res = encodeBitmap(bitmap, file, options);
+					if (listener != null) {
+						listener.onBitmapEncoded(res);
+					}
+					return res;
+				}
+				catch (IOException e) {
+					QUFactory.QLog.error("Could not save bitmap", e);
+					if (listener != null) {
+						listener.onBitmapEncodeFailed(file, e);
+					}
+					throw e;
+				} finally {
+					if (recycle) {
+						bitmap.recycle();
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 * @param src
 	 * @return
@@ -381,6 +801,130 @@ import android.view.Display;
 		return ret;
 	}
 
+	/**
+	 * Blurs a bitmap with the StackBlur RenderScript kernel.
+	 *
+	 * @param context
+	 *            any context, used to create the RenderScript context on first use
+	 * @param bitmap
+	 *            input bitmap, it is left untouched
+	 * @param radius
+	 *            blur radius in pixels 1..254
+	 * @return new blurred ARGB_8888 bitmap
+	 */
+	public static Bitmap blur(Context context, Bitmap bitmap, int radius) {
+		Bitmap res = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+		try {
+			RenderScriptFilters.get(context).blur(res, res, radius);
+		}
+		catch (RSRuntimeException e) {
+			QUFactory.QLog.warning("RenderScript unavailable, blurring in Java", e);
+			blurInPlace(res, radius);
+		}
+		return res;
+	}
+
+	/**
+	 * Blurs a bitmap with the pure Java port of the StackBlur kernel, using all cores. The result is bit-identical to
+	 * {@link #blur(Context, Bitmap, int)}.
+	 *
+	 * @param bitmap
+	 *            input bitmap, it is left untouched
+	 * @param radius
+	 *            blur radius in pixels 1..254
+	 * @return new blurred ARGB_8888 bitmap
+	 */
+	public static Bitmap blur(Bitmap bitmap, int radius) {
+		Bitmap res = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+		blurInPlace(res, radius);
+		return res;
+	}
+
+	/**
+	 * Blurs a bitmap with a large radius at a fraction of the cost of {@link #blur(Context, Bitmap, int)}: the bitmap is
+	 * downscaled by a factor derived from the radius (up to 8), blurred with the StackBlur kernel, then upscaled with
+	 * bilinear filtering. The result is visually equivalent for radii of about 8 and more.<br/>
+	 * The intermediate buffers are kept by the calling thread and reused across calls with the same dimensions.
+	 *
+	 * @param context
+	 *            any context to blur with RenderScript, or {@code null} to blur in Java
+	 * @param bitmap
+	 *            input bitmap, it is left untouched unless it is also {@code output}
+	 * @param radius
+	 *            blur radius in pixels of the input bitmap
+	 * @param output
+	 *            mutable bitmap receiving the result, scaled to its size, or {@code null} to create one
+	 * @return the blurred bitmap, {@code output} if it was given
+	 */
+	public static Bitmap blurFast(Context context, Bitmap bitmap, int radius, Bitmap output) {
+		if (output == null) {
+			output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+		}
+		DownscaledBlur.blur(context, bitmap, output, radius);
+		return output;
+	}
+
+	/**
+	 * Blurs a mutable ARGB_8888 bitmap in place with {@link StackBlur}, on its premultiplied pixels like the kernel.
+	 */
+	static void blurInPlace(Bitmap bitmap, int radius) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] pixels = new int[width * height];
+		bitmap.copyPixelsToBuffer(IntBuffer.wrap(pixels));
+		StackBlur.blur(pixels, width, height, radius);
+		bitmap.copyPixelsFromBuffer(IntBuffer.wrap(pixels));
+	}
+
+	/**
+	 * Changes the contrast of a bitmap with the contrast RenderScript kernel: each channel is scaled by
+	 * {@code 2^(value/100)} around mid gray. Alpha is kept, and translucent pixels are scaled on their unpremultiplied
+	 * color.
+	 *
+	 * @param context
+	 *            any context, used to create the RenderScript context on first use
+	 * @param bitmap
+	 *            input bitmap, it is left untouched
+	 * @param value
+	 *            contrast, 0 is default, 100 doubles it and -100 halves it
+	 * @return new ARGB_8888 bitmap
+	 */
+	public static Bitmap contrast(Context context, Bitmap bitmap, float value) {
+		Bitmap res = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+		try {
+			RenderScriptFilters.get(context).contrast(res, res, value);
+		}
+		catch (RSRuntimeException e) {
+			QUFactory.QLog.warning("RenderScript unavailable, applying contrast in Java", e);
+			ColorLut.exposure(value).apply(res, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Grades a bitmap with a lookup table (tone curves and/or a 3D cube loaded from a {@code .cube} file).
+	 *
+	 * @param context
+	 *            any context to use the lut RenderScript kernel, or {@code null} to apply the LUT in Java
+	 * @param bitmap
+	 *            input bitmap, it is left untouched
+	 * @param lut
+	 *            the LUT, reusing the same instance for a whole gallery avoids uploading its tables again
+	 * @return new ARGB_8888 bitmap
+	 */
+	public static Bitmap applyLut(Context context, Bitmap bitmap, ColorLut lut) {
+		Bitmap res = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+		return context == null ? lut.apply(res, res) : lut.apply(context, res, res);
+	}
+
+	/**
+	 * Frees the RenderScript allocations kept by {@link #blur(Context, Bitmap, int)},
+	 * {@link #contrast(Context, Bitmap, float)} and {@link #applyLut(Context, Bitmap, ColorLut)} between calls, e.g. from {@code onTrimMemory}.
+	 */
+	public static void trimRenderScriptMemory(Context context) {
+		RenderScriptFilters.get(context).trimMemory();
+	}
+
 	/**
 	 * Stores an image on the storage
 	 * 
@@ -390,14 +934,27 @@ import android.view.Display;
 	 *            the file in which it must be stored
 	 */
 	public static void storeImage(Bitmap image, File pictureFile) {
+		storeImage(image, pictureFile, new EncodeOptions(EncodeOptions.Format.PNG, 90));
+	}
+
+	/**
+	 * Stores an image on the storage
+	 *
+	 * @param image
+	 *            the image to store.
+	 * @param pictureFile
+	 *            the file in which it must be stored
+	 * @param options
+	 *            the encoding options
+	 * @return the encoded size and time, or {@code null} if the image could not be stored
+	 */
+	public static EncodeResult storeImage(Bitmap image, File pictureFile, EncodeOptions options) {
 		if (pictureFile == null) {
 			QUFactory.QLog.debug("Error creating media file, check storage permissions: ");
-			return;
+			return null;
 		}
 		try {
-			FileOutputStream fos = new FileOutputStream(pictureFile);
-			image.compress(Bitmap.CompressFormat.PNG, 90, fos);
-			fos.close();
+			return encodeBitmap(image, pictureFile, options);
 		}
 		catch (FileNotFoundException e) {
 			QUFactory.QLog.debug("File not found: " + e.getMessage());
@@ -405,6 +962,7 @@ import android.view.Display;
 		catch (IOException e) {
 			QUFactory.QLog.debug("Error accessing file: " + e.getMessage());
 		}
+		return null;
 	}
 
 	/**
@@ -0,0 +1,191 @@
+package quickutils.core;
+
+import java.nio.IntBuffer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.v8.renderscript.Allocation;
+import android.support.v8.renderscript.Element;
+import android.support.v8.renderscript.RSRuntimeException;
+import android.support.v8.renderscript.RenderScript;
+import android.support.v8.renderscript.Type;
+
+
+/**
+ * Blur session for content re-blurred every frame, e.g. a frosted glass background behind an animation.<br/>
+ * All the buffers (the {@code stackblur.rs} script and allocations, the pixel buffer and the output bitmap) are created
+ * once for the session's size, so that {@link #update(Bitmap)} does not allocate on the RenderScript path. Frames whose
+ * content did not change are skipped, and blurs can be limited to one per {@link #setMinFrameInterval(long) interval}.
+ * <br/>
+ * A session is not thread-safe and must be {@link #release() released} when no longer used.
+ */
+public class LiveBlur {
+
+	private final int			width;
+	private final int			height;
+	private final int[]			pixels;
+	private final IntBuffer		pixelBuffer;
+	private final Bitmap		output;
+	private int					radius;
+	private long				minFrameInterval;
+
+	private ScriptC_stackblur	script;
+	private Allocation			allocation;
+	private Allocation			rowIndices;
+	private Allocation			columnIndices;
+
+	private boolean				blurred;
+	private long				lastHash;
+	private int					lastRadius;
+	private long				lastBlurTime;
+
+	/**
+	 * @param context
+	 *            any context to blur with RenderScript, or {@code null} to blur in Java
+	 * @param width
+	 *            width of the frames
+	 * @param height
+	 *            height of the frames
+	 * @param radius
+	 *            blur radius in pixels 1..254
+	 */
+	public LiveBlur(Context context, int width, int height, int radius) {
+		this.width = width;
+		this.height = height;
+		this.pixels = new int[width * height];
+		this.pixelBuffer = IntBuffer.wrap(pixels);
+		this.output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		setRadius(radius);
+		if (context != null) {
+			try {
+				RenderScript rs = RenderScriptFilters.get(context).getRenderScript();
+				script = new ScriptC_stackblur(rs);
+				allocation = Allocation.createTyped(rs, Type.createXY(rs, Element.RGBA_8888(rs), width, height));
+				rowIndices = RenderScriptFilters.createIndices(rs, height);
+				columnIndices = RenderScriptFilters.createIndices(rs, width);
+				script.set_gIn(allocation);
+				script.set_width(width);
+				script.set_height(height);
+			}
+			catch (RSRuntimeException e) {
+				QUFactory.QLog.warning("RenderScript unavailable, blurring in Java", e);
+				script = null;
+			}
+		}
+	}
+
+	/**
+	 * @param radius
+	 *            blur radius in pixels 1..254, taken into account on the next frame
+	 */
+	public void setRadius(int radius) {
+		this.radius = Math.max(1, Math.min(StackBlur.MAX_RADIUS, radius));
+	}
+
+	/**
+	 * @param millis
+	 *            minimum time between two blurs, frames coming sooner are skipped (default is 0, every changed frame is
+	 *            blurred)
+	 */
+	public void setMinFrameInterval(long millis) {
+		this.minFrameInterval = millis;
+	}
+
+	/**
+	 * @return The bitmap holding the last blurred frame. It is reused by every frame and must not be recycled.
+	 */
+	public Bitmap getOutput() {
+		return output;
+	}
+
+	/**
+	 * Blurs a new frame into {@link #getOutput()}.
+	 *
+	 * @param frame
+	 *            ARGB_8888 bitmap of the session's size
+	 * @return {@code true} if the output changed, {@code false} if the frame was skipped because its content did not
+	 *         change or it came too soon after the previous blur
+	 */
+	public boolean update(Bitmap frame) {
+		if (tooSoon()) return false;
+		pixelBuffer.rewind();
+		frame.copyPixelsToBuffer(pixelBuffer);
+		return process();
+	}
+
+	/**
+	 * Blurs a new frame into {@link #getOutput()}.
+	 *
+	 * @param frame
+	 *            premultiplied pixels of the session's size, in the layout of
+	 *            {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)}
+	 * @return {@code true} if the output changed, {@code false} if the frame was skipped
+	 */
+	public boolean update(int[] frame) {
+		if (tooSoon()) return false;
+		System.arraycopy(frame, 0, pixels, 0, pixels.length);
+		return process();
+	}
+
+	/**
+	 * Releases the session's buffers.
+	 */
+	public void release() {
+		if (script != null) {
+			destroyScript();
+		}
+		output.recycle();
+	}
+
+	private boolean tooSoon() {
+		return blurred && minFrameInterval > 0 && SystemClock.uptimeMillis() - lastBlurTime < minFrameInterval;
+	}
+
+	private boolean process() {
+		long hash = hash(pixels);
+		if (blurred && hash == lastHash && radius == lastRadius) return false;
+		blurred = true;
+		lastHash = hash;
+		lastRadius = radius;
+		lastBlurTime = SystemClock.uptimeMillis();
+		if (script != null) {
+			try {
+				// The pixels are RGBA bytes read as ints, copyFrom(int[]) would reject them for an RGBA_8888 element
+				allocation.copyFromUnchecked(pixels);
+				script.set_radius(radius);
+				script.forEach_blur_h(rowIndices);
+				script.forEach_blur_v(columnIndices);
+				allocation.copyTo(output);
+				return true;
+			}
+			catch (RSRuntimeException e) {
+				QUFactory.QLog.warning("RenderScript failed, blurring in Java", e);
+				destroyScript();
+			}
+		}
+		StackBlur.blur(pixels, width, height, radius);
+		pixelBuffer.rewind();
+		output.copyPixelsFromBuffer(pixelBuffer);
+		return true;
+	}
+
+	private void destroyScript() {
+		allocation.destroy();
+		rowIndices.destroy();
+		columnIndices.destroy();
+		script.destroy();
+		script = null;
+	}
+
+	/**
+	 * 64 bit FNV-1a style hash of the frame, to detect unchanged content.
+	 */
+	private static long hash(int[] pixels) {
+		long hash = 0xcbf29ce484222325L;
+		for (int pixel : pixels) {
+			hash = (hash ^ pixel) * 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,112 @@
+package quickutils.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Splits a loop over {@code [0, count)} into contiguous bands run in parallel on a shared pool sized to the number of
+ * cores, the calling thread running the first band itself.
+ */
+final class ParallelLoop {
+
+	/**
+	 * Body of the loop, called once per band.
+	 */
+	interface Body {
+
+		/**
+		 * @param from
+		 *            First index of the band, inclusive.
+		 * @param to
+		 *            Last index of the band, exclusive.
+		 */
+		void run(int from, int to);
+	}
+
+	static final int	THREADS	= Runtime.getRuntime().availableProcessors();
+
+	private static class Worker extends Thread {
+
+		Worker(Runnable runnable, int index) {
+			super(runnable, "ParallelLoop-" + index);
+			setDaemon(true);
+		}
+	}
+
+	private static class PoolHolder {
+
+		static final ExecutorService	EXECUTOR	= Executors.newFixedThreadPool(Math.max(1, THREADS - 1), new ThreadFactory() {
+
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			@Override public Thread newThread(Runnable runnable) {
+				return new Worker(runnable, count.incrementAndGet());
+			}
+		});
+	}
+
+	private ParallelLoop() {}
+
+	/**
+	 * Runs {@code body} over {@code [0, count)}, blocking until every band is done.<br/>
+	 * Loops started from inside a band run on the calling thread, so that bands never wait for each other.
+	 *
+	 * @param count
+	 *            Number of iterations.
+	 * @param minBand
+	 *            Minimum number of iterations worth running on another thread.
+	 * @param body
+	 *            The loop body.
+	 */
+	static void run(int count, int minBand, final Body body) {
+		int bands = Math.min(THREADS, count / Math.max(1, minBand));
+		if (bands <= 1 || Thread.currentThread() instanceof Worker) {
+			if (count > 0) {
+				body.run(0, count);
+			}
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(bands - 1);
+		final RuntimeException[] failure = new RuntimeException[1];
+		for (int band = 1; band < bands; band++) {
+			final int from = (int) ((long) count * band / bands);
+			final int to = (int) ((long) count * (band + 1) / bands);
+			PoolHolder.EXECUTOR.execute(new Runnable() {
+
+				@Override public void run() {
+					try {
+						body.run(from, to);
+					}
+					catch (RuntimeException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		body.run(0, count / bands);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (failure) {
+			if (failure[0] != null) throw failure[0];
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package quickutils.core;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Recurring schedule in the spirit of an iCalendar RRULE: every N days, every N weeks on some days of the week, every N
+ * months on a day of the month (clamped to the last day of short months) or on the nth day of the week, or every N
+ * years.<br/>
+ * Occurrences keep the local time of day of the start in the timezone of the rule, and are computed period by period
+ * with closed-form calendar math, so a window far from the start is reached without expanding what comes before.<br/>
+ * Instances are immutable and thread-safe.
+ */
+public final class Recurrence {
+
+     private static final int      DAILY   = 0;
+     private static final int      WEEKLY  = 1;
+     private static final int      MONTHLY = 2;
+     private static final int      YEARLY  = 3;
+
+     /** Value of {@code weekOfMonth} for the last day of the week of the month. */
+     public static final int       LAST    = -1;
+
+     private final int             frequency;
+     private final int             interval;
+     private final long            start;
+     private final ZoneOffsetTable table;
+     private final long            count;
+     private final long            until;
+
+     /** Local day of the start, in days since 1970-01-01. */
+     private final long            startDay;
+     /** Local time of day of the occurrences, in milliseconds. */
+     private final long            timeOfDay;
+     /** Weekly: days after Monday, increasing. */
+     private final int[]           weekDays;
+     /** Monthly and yearly: day of the month, 0 for a day of the week. */
+     private final int             monthDay;
+     /** Monthly: {@link Calendar} day of the week, and its rank in the month or {@link #LAST}. */
+     private final int             weekDay;
+     private final int             weekOfMonth;
+
+     /** Occurrences of the first period that are before the start. */
+     private final int             skippedFirst;
+
+     private Recurrence (int frequency, int interval, long start, String timeZone, long count, long until, int[] weekDays, int monthDay, int weekDay,
+                         int weekOfMonth) {
+          if ( interval < 1 ) { throw new IllegalArgumentException("Interval must be positive: " + interval); }
+          this.frequency = frequency;
+          this.interval = interval;
+          this.start = start;
+          this.table = ZoneOffsetTable.get(timeZone);
+          this.count = count;
+          this.until = until;
+          long local = start + table.getOffset(start);
+          this.startDay = EpochMath.floorDiv(local, EpochMath.MILLIS_PER_DAY);
+          this.timeOfDay = EpochMath.floorMod(local, EpochMath.MILLIS_PER_DAY);
+          this.weekDays = weekDays;
+          this.monthDay = monthDay;
+          this.weekDay = weekDay;
+          this.weekOfMonth = weekOfMonth;
+          int skipped = 0;
+          long[] days = new long[7];
+          int n = getDays(0, days);
+          while ( skipped < n && toInstant(days[skipped]) < start ) {
+               skipped++;
+          }
+          this.skippedFirst = skipped;
+     }
+
+     private Recurrence (Recurrence other, long count, long until) {
+          this.frequency = other.frequency;
+          this.interval = other.interval;
+          this.start = other.start;
+          this.table = other.table;
+          this.count = count;
+          this.until = until;
+          this.startDay = other.startDay;
+          this.timeOfDay = other.timeOfDay;
+          this.weekDays = other.weekDays;
+          this.monthDay = other.monthDay;
+          this.weekDay = other.weekDay;
+          this.weekOfMonth = other.weekOfMonth;
+          this.skippedFirst = other.skippedFirst;
+     }
+
+     /**
+      * @param start
+      *             the first occurrence, in epoch milliseconds
+      * @param timeZone
+      *             timezone ID (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      * @param interval
+      *             number of days between occurrences
+      * @return a rule occurring every {@code interval} days at the time of {@code start}
+      */
+     public static Recurrence daily(long start, String timeZone, int interval) {
+          return new Recurrence(DAILY, interval, start, timeZone, Long.MAX_VALUE, Long.MAX_VALUE, null, 0, 0, 0);
+     }
+
+     /**
+      * @param interval
+      *             number of weeks between occurrences, weeks starting on Monday
+      * @param daysOfWeek
+      *             days of the occurrences, {@link Calendar#SUNDAY} to {@link Calendar#SATURDAY}, or none for the day of
+      *             {@code start}
+      * @return a rule occurring on the given days every {@code interval} weeks, at the time of {@code start}
+      * @see #daily(long, String, int)
+      */
+     public static Recurrence weekly(long start, String timeZone, int interval, int... daysOfWeek) {
+          long local = start + ZoneOffsetTable.get(timeZone).getOffset(start);
+          if ( daysOfWeek.length == 0 ) {
+               daysOfWeek = new int[] { EpochMath.dayOfWeek(EpochMath.floorDiv(local, EpochMath.MILLIS_PER_DAY)) };
+          }
+          int[] weekDays = new int[daysOfWeek.length];
+          for (int i = 0; i < daysOfWeek.length; i++) {
+               checkDayOfWeek(daysOfWeek[i]);
+               weekDays[i] = (int) EpochMath.floorMod(daysOfWeek[i] - Calendar.MONDAY, 7);
+          }
+          Arrays.sort(weekDays);
+          return new Recurrence(WEEKLY, interval, start, timeZone, Long.MAX_VALUE, Long.MAX_VALUE, weekDays, 0, 0, 0);
+     }
+
+     /**
+      * @param interval
+      *             number of months between occurrences
+      * @param dayOfMonth
+      *             day of the occurrences, 1 to 31, the last day of the month when it is shorter
+      * @return a rule occurring on the given day every {@code interval} months, at the time of {@code start}
+      * @see #daily(long, String, int)
+      */
+     public static Recurrence monthly(long start, String timeZone, int interval, int dayOfMonth) {
+          if ( dayOfMonth < 1 || dayOfMonth > 31 ) { throw new IllegalArgumentException("Invalid day of month: " + dayOfMonth); }
+          return new Recurrence(MONTHLY, interval, start, timeZone, Long.MAX_VALUE, Long.MAX_VALUE, null, dayOfMonth, 0, 0);
+     }
+
+     /**
+      * @param interval
+      *             number of months between occurrences
+      * @param dayOfWeek
+      *             day of the occurrences, {@link Calendar#SUNDAY} to {@link Calendar#SATURDAY}
+      * @param weekOfMonth
+      *             1 to 4 for the first to the fourth such day of the month, or {@link #LAST}
+      * @return a rule occurring on e.g. the second Tuesday every {@code interval} months, at the time of {@code start}
+      * @see #daily(long, String, int)
+      */
+     public static Recurrence monthly(long start, String timeZone, int interval, int dayOfWeek, int weekOfMonth) {
+          checkDayOfWeek(dayOfWeek);
+          if ( weekOfMonth != LAST && (weekOfMonth < 1 || weekOfMonth > 4) ) { throw new IllegalArgumentException("Invalid week of month: " + weekOfMonth); }
+          return new Recurrence(MONTHLY, interval, start, timeZone, Long.MAX_VALUE, Long.MAX_VALUE, null, 0, dayOfWeek, weekOfMonth);
+     }
+
+     /**
+      * @param interval
+      *             number of years between occurrences
+      * @return a rule occurring on the day and time of {@code start} every {@code interval} years, February 29 being
+      *         February 28 in other years
+      * @see #daily(long, String, int)
+      */
+     public static Recurrence yearly(long start, String timeZone, int interval) {
+          return new Recurrence(YEARLY, interval, start, timeZone, Long.MAX_VALUE, Long.MAX_VALUE, null, 0, 0, 0);
+     }
+
+     /**
+      * @return a copy of this rule limited to its first {@code count} occurrences
+      */
+     public Recurrence withCount(long count) {
+          return new Recurrence(this, count, until);
+     }
+
+     /**
+      * @return a copy of this rule without occurrences after {@code until}, inclusive
+      */
+     public Recurrence withUntil(long until) {
+          return new Recurrence(this, count, until);
+     }
+
+     public long getStart() {
+          return start;
+     }
+
+     /**
+      * @return the occurrences in {@code [from, to)}, computed as they are read
+      */
+     public Occurrences occurrences(long from, long to) {
+          return new Occurrences(from, to);
+     }
+
+     /**
+      * Writes the occurrences in {@code [from, to)} into the given array.
+      *
+      * @return the number of occurrences written, at most {@code dst.length}
+      */
+     public int expand(long from, long to, long[] dst) {
+          Occurrences occurrences = new Occurrences(from, to);
+          int res = 0;
+          while ( res < dst.length && occurrences.next() ) {
+               dst[res++] = occurrences.get();
+          }
+          return res;
+     }
+
+     /**
+      * Cursor over the occurrences of a window, in increasing order:
+      *
+      * <pre>
+      * Recurrence.Occurrences occurrences = recurrence.occurrences(from, to);
+      * while ( occurrences.next() ) {
+      *      long millis = occurrences.get();
+      * }
+      * </pre>
+      *
+      * Not thread-safe.
+      */
+     public final class Occurrences {
+
+          private final long   from;
+          private final long   to;
+          private final long[] days = new long[7];
+          private long         period;
+          private int          dayCount;
+          private int          dayIndex;
+          /** Index of the next occurrence since the start. */
+          private long         index;
+          private long         current;
+          private boolean      done;
+
+          Occurrences (long from, long to) {
+               this.from = from;
+               this.to = to;
+               // Jump to the period before the one of the window, the local time of day can move an occurrence across
+               period = Math.max(0, getPeriod(EpochMath.floorDiv(Math.max(from, start) + table.getOffset(Math.max(from, start)), EpochMath.MILLIS_PER_DAY)) - 1);
+               dayCount = getDays(period, days);
+               dayIndex = period == 0 ? skippedFirst : 0;
+               index = period == 0 ? 0 : period * getPerPeriod() - skippedFirst;
+          }
+
+          /**
+           * Moves to the next occurrence.
+           *
+           * @return false when there are no more occurrences in the window
+           */
+          public boolean next() {
+               while ( !done ) {
+                    if ( dayIndex == dayCount ) {
+                         period++;
+                         dayCount = getDays(period, days);
+                         dayIndex = 0;
+                         continue;
+                    }
+                    long millis = toInstant(days[dayIndex++]);
+                    if ( index++ >= count || millis > until || millis >= to ) {
+                         done = true;
+                    } else if ( millis >= from ) {
+                         current = millis;
+                         return true;
+                    }
+               }
+               return false;
+          }
+
+          /**
+           * @return the current occurrence, in epoch milliseconds
+           */
+          public long get() {
+               return current;
+          }
+     }
+
+     private int getPerPeriod() {
+          return frequency == WEEKLY ? weekDays.length : 1;
+     }
+
+     /**
+      * @return the period of the given local day, possibly negative
+      */
+     private long getPeriod(long day) {
+          switch (frequency) {
+               case DAILY:
+                    return EpochMath.floorDiv(day - startDay, interval);
+               case WEEKLY:
+                    return EpochMath.floorDiv(day - getMonday(startDay), 7L * interval);
+               case MONTHLY:
+                    return EpochMath.floorDiv(getMonthIndex(day) - getMonthIndex(startDay), interval);
+               default:
+                    return EpochMath.floorDiv(EpochMath.year(EpochMath.civilFromDays(day)) - EpochMath.year(EpochMath.civilFromDays(startDay)), interval);
+          }
+     }
+
+     /**
+      * Computes the local days of the occurrences of a period.
+      *
+      * @return the number of days written in {@code days}, in increasing order
+      */
+     private int getDays(long period, long[] days) {
+          switch (frequency) {
+               case DAILY:
+                    days[0] = startDay + period * interval;
+                    return 1;
+               case WEEKLY:
+                    long monday = getMonday(startDay) + period * 7 * interval;
+                    for (int i = 0; i < weekDays.length; i++) {
+                         days[i] = monday + weekDays[i];
+                    }
+                    return weekDays.length;
+               case MONTHLY:
+                    long month = getMonthIndex(startDay) + period * interval;
+                    int year = (int) EpochMath.floorDiv(month, 12);
+                    int monthOfYear = (int) EpochMath.floorMod(month, 12) + 1;
+                    int length = EpochMath.daysInMonth(year, monthOfYear);
+                    long first = EpochMath.daysFromCivil(year, monthOfYear, 1);
+                    if ( monthDay > 0 ) {
+                         days[0] = first + Math.min(monthDay, length) - 1;
+                    } else if ( weekOfMonth == LAST ) {
+                         long last = first + length - 1;
+                         days[0] = last - EpochMath.floorMod(EpochMath.dayOfWeek(last) - weekDay, 7);
+                    } else {
+                         days[0] = first + EpochMath.floorMod(weekDay - EpochMath.dayOfWeek(first), 7) + 7 * (weekOfMonth - 1);
+                    }
+                    return 1;
+               default:
+                    int date = EpochMath.civilFromDays(startDay);
+                    int y = EpochMath.year(date) + (int) (period * interval);
+                    int m = EpochMath.month(date);
+                    days[0] = EpochMath.daysFromCivil(y, m, Math.min(EpochMath.day(date), EpochMath.daysInMonth(y, m)));
+                    return 1;
+          }
+     }
+
+     private long toInstant(long day) {
+          long local = day * EpochMath.MILLIS_PER_DAY + timeOfDay;
+          return local - table.getOffsetFromLocal(local);
+     }
+
+     /**
+      * @return the Monday of the week of the given day
+      */
+     private static long getMonday(long day) {
+          return day - EpochMath.floorMod(EpochMath.dayOfWeek(day) - Calendar.MONDAY, 7);
+     }
+
+     /**
+      * @return the number of months since January of year 0
+      */
+     private static long getMonthIndex(long day) {
+          int date = EpochMath.civilFromDays(day);
+          return EpochMath.year(date) * 12L + EpochMath.month(date) - 1;
+     }
+
+     private static void checkDayOfWeek(int dayOfWeek) {
+          if ( dayOfWeek < Calendar.SUNDAY || dayOfWeek > Calendar.SATURDAY ) { throw new IllegalArgumentException("Invalid day of week: " + dayOfWeek); }
+     }
+}
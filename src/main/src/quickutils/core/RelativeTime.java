@@ -0,0 +1,116 @@
+package quickutils.core;
+
+/**
+ * English relative times such as "just now", "5 minutes ago" or "in 2 hours", with the strings of each unit and count
+ * built once, and the instant at which the text of a timestamp changes so that only the rows that need it are
+ * refreshed.<br/>
+ * Months are 30 days and years 365 days.
+ */
+final class RelativeTime {
+
+     private static final long     MILLIS_PER_WEEK  = 7 * EpochMath.MILLIS_PER_DAY;
+     private static final long     MILLIS_PER_MONTH = 30 * EpochMath.MILLIS_PER_DAY;
+     private static final long     MILLIS_PER_YEAR  = 365 * EpochMath.MILLIS_PER_DAY;
+
+     static final String           JUST_NOW         = "just now";
+
+     /** Length of each unit, a difference is counted in the largest unit it reaches. */
+     private static final long[]   UNITS            = { MILLIS_PER_YEAR, MILLIS_PER_MONTH, MILLIS_PER_WEEK, EpochMath.MILLIS_PER_DAY,
+                         EpochMath.MILLIS_PER_HOUR, EpochMath.MILLIS_PER_MINUTE };
+     private static final String[] NAMES            = { "year", "month", "week", "day", "hour", "minute" };
+     /** Largest count of each unit with a cached string. */
+     private static final int[]    MAX_CACHED       = { 10, 12, 4, 6, 23, 59 };
+
+     /** Strings of the past, then of the future, per unit and count. */
+     private static volatile String[][][] texts;
+
+     private RelativeTime () {
+     }
+
+     /**
+      * @param time
+      *             the instant to describe, in epoch milliseconds
+      * @param now
+      *             the current instant
+      * @return the relative time
+      */
+     static String format(long time, long now) {
+          long delta = now - time;
+          boolean future = delta < 0;
+          if ( future ) {
+               delta = -delta;
+          }
+          if ( delta < EpochMath.MILLIS_PER_MINUTE ) { return JUST_NOW; }
+          int unit = getUnit(delta);
+          long count = delta / UNITS[unit];
+          if ( count <= MAX_CACHED[unit] ) { return getTexts()[future ? 1 : 0][unit][(int) count]; }
+          return build(unit, count, future);
+     }
+
+     /**
+      * @return the first instant after {@code now} at which {@link #format(long, long)} gives a different text for the
+      *         given time
+      */
+     static long nextChange(long time, long now) {
+          long delta = now - time;
+          if ( delta < 0 ) {
+               long remaining = -delta;
+               if ( remaining < EpochMath.MILLIS_PER_MINUTE ) {
+                    // "just now" until a minute after the time
+                    return time + EpochMath.MILLIS_PER_MINUTE;
+               }
+               long length = UNITS[getUnit(remaining)];
+               // The count drops when the remaining time gets below its current multiple of the unit
+               return time - remaining / length * length + 1;
+          }
+          if ( delta < EpochMath.MILLIS_PER_MINUTE ) { return time + EpochMath.MILLIS_PER_MINUTE; }
+          int unit = getUnit(delta);
+          long next = time + (delta / UNITS[unit] + 1) * UNITS[unit];
+          // e.g. 4 weeks become 1 month after 30 days
+          return unit > 0 ? Math.min(next, time + UNITS[unit - 1]) : next;
+     }
+
+     /**
+      * @return the index in {@link #UNITS} of the largest unit not longer than the difference
+      */
+     private static int getUnit(long delta) {
+          int unit = 0;
+          while ( UNITS[unit] > delta ) {
+               unit++;
+          }
+          return unit;
+     }
+
+     private static String[][][] getTexts() {
+          String[][][] res = texts;
+          if ( res == null ) {
+               res = new String[2][UNITS.length][];
+               for (int f = 0; f < 2; f++) {
+                    for (int unit = 0; unit < UNITS.length; unit++) {
+                         String[] counts = new String[MAX_CACHED[unit] + 1];
+                         for (int count = 1; count < counts.length; count++) {
+                              counts[count] = build(unit, count, f == 1);
+                         }
+                         res[f][unit] = counts;
+                    }
+               }
+               texts = res;
+          }
+          return res;
+     }
+
+     private static String build(int unit, long count, boolean future) {
+          StringBuilder builder = new StringBuilder(20);
+          if ( future ) {
+               builder.append("in ");
+          }
+          builder.append(count).append(' ').append(NAMES[unit]);
+          if ( count > 1 ) {
+               builder.append('s');
+          }
+          if ( !future ) {
+               builder.append(" ago");
+          }
+          return builder.toString();
+     }
+}
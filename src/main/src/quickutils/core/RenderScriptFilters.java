@@ -0,0 +1,236 @@
+package quickutils.core;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v8.renderscript.Allocation;
+import android.support.v8.renderscript.Element;
+import android.support.v8.renderscript.Float4;
+import android.support.v8.renderscript.Matrix4f;
+import android.support.v8.renderscript.RenderScript;
+import android.support.v8.renderscript.Type;
+
+
+/**
+ * Runs the bundled RenderScript kernels ({@code stackblur.rs}, {@code contrast.rs}, {@code colormatrix.rs},
+ * {@code lut.rs}) on bitmaps.<br/>
+ * The RenderScript context and the scripts are created once per process, and the allocations are kept and reused as
+ * long as the bitmaps keep the same dimensions. Calls are serialized.
+ */
+final class RenderScriptFilters {
+
+	/** Largest radius supported by the tables of {@code stackblur.rs}. */
+	static final int					MAX_BLUR_RADIUS	= 254;
+
+	private static RenderScriptFilters	instance;
+
+	private final RenderScript			rs;
+	private ScriptC_stackblur			blurScript;
+	private ScriptC_contrast			contrastScript;
+	private ScriptC_colormatrix			colorMatrixScript;
+	private ScriptC_lut					lutScript;
+
+	// Tables of the last applied LUT, uploaded again only when the LUT changes
+	private ColorLut					lut;
+	private Allocation					lutCurves;
+	private Allocation					lutCube;
+
+	private int							width;
+	private int							height;
+	private Allocation					pixels;
+	private Allocation					output;
+	private Allocation					rowIndices;
+	private Allocation					columnIndices;
+
+	private RenderScriptFilters(Context context) {
+		rs = RenderScript.create(context.getApplicationContext());
+	}
+
+	/**
+	 * @return The process wide instance, created on first use.
+	 * @throws android.support.v8.renderscript.RSRuntimeException
+	 *             If RenderScript is not available.
+	 */
+	static synchronized RenderScriptFilters get(Context context) {
+		if (instance == null) {
+			instance = new RenderScriptFilters(context);
+		}
+		return instance;
+	}
+
+	/**
+	 * @return The shared RenderScript context.
+	 */
+	RenderScript getRenderScript() {
+		return rs;
+	}
+
+	/**
+	 * Blurs {@code src} into {@code dst} with {@code stackblur.rs}.<br/>
+	 * Both bitmaps must be {@link Bitmap.Config#ARGB_8888} and have the same dimensions, they can be the same bitmap.
+	 */
+	synchronized void blur(Bitmap src, Bitmap dst, int radius) {
+		if (blurScript == null) {
+			blurScript = new ScriptC_stackblur(rs);
+		}
+		prepare(src.getWidth(), src.getHeight());
+		pixels.copyFrom(src);
+		blurScript.set_gIn(pixels);
+		blurScript.set_width(width);
+		blurScript.set_height(height);
+		blurScript.set_radius(Math.max(1, Math.min(MAX_BLUR_RADIUS, radius)));
+		// Rows then columns, each kernel invocation processes a whole line in place
+		blurScript.forEach_blur_h(rowIndices);
+		blurScript.forEach_blur_v(columnIndices);
+		pixels.copyTo(dst);
+	}
+
+	/**
+	 * Changes the brightness of {@code src} into {@code dst} with {@code contrast.rs}, keeping the alpha channel.
+	 * Translucent pixels are unpremultiplied before scaling.<br/>
+	 * Both bitmaps must be {@link Bitmap.Config#ARGB_8888} and have the same dimensions, they can be the same bitmap.
+	 *
+	 * @param value
+	 *            The exponent of the {@code 2^(value/100)} factor applied around mid gray, 0 leaves the bitmap unchanged.
+	 */
+	synchronized void contrast(Bitmap src, Bitmap dst, float value) {
+		if (contrastScript == null) {
+			contrastScript = new ScriptC_contrast(rs);
+		}
+		prepare(src.getWidth(), src.getHeight());
+		if (output == null) {
+			output = Allocation.createTyped(rs, pixels.getType());
+		}
+		pixels.copyFrom(src);
+		contrastScript.invoke_setBright(value);
+		contrastScript.forEach_contrast(pixels, output);
+		output.copyTo(dst);
+	}
+
+	/**
+	 * Applies a 4x5 color matrix to {@code src} into {@code dst} with {@code colormatrix.rs}.<br/>
+	 * Both bitmaps must be {@link Bitmap.Config#ARGB_8888} and have the same dimensions, they can be the same bitmap.
+	 *
+	 * @param colorMatrix
+	 *            4x5 matrix in the layout of {@link android.graphics.ColorMatrix}
+	 */
+	synchronized void colorMatrix(Bitmap src, Bitmap dst, float[] colorMatrix) {
+		if (colorMatrixScript == null) {
+			colorMatrixScript = new ScriptC_colormatrix(rs);
+		}
+		prepare(src.getWidth(), src.getHeight());
+		if (output == null) {
+			output = Allocation.createTyped(rs, pixels.getType());
+		}
+		// rs_matrix4x4 is column major
+		Matrix4f matrix = new Matrix4f();
+		for (int row = 0; row < 4; row++) {
+			for (int column = 0; column < 4; column++) {
+				matrix.set(column, row, colorMatrix[row * 5 + column]);
+			}
+		}
+		colorMatrixScript.set_gMatrix(matrix);
+		colorMatrixScript.set_gOffset(new Float4(colorMatrix[4], colorMatrix[9], colorMatrix[14], colorMatrix[19]));
+		pixels.copyFrom(src);
+		colorMatrixScript.forEach_colormatrix(pixels, output);
+		output.copyTo(dst);
+	}
+
+	/**
+	 * Applies a {@link ColorLut} to {@code src} into {@code dst} with {@code lut.rs}.<br/>
+	 * Both bitmaps must be {@link Bitmap.Config#ARGB_8888} and have the same dimensions, they can be the same bitmap.
+	 */
+	synchronized void lut(Bitmap src, Bitmap dst, ColorLut colorLut) {
+		if (lutScript == null) {
+			lutScript = new ScriptC_lut(rs);
+		}
+		prepare(src.getWidth(), src.getHeight());
+		if (output == null) {
+			output = Allocation.createTyped(rs, pixels.getType());
+		}
+		if (colorLut != lut) {
+			destroyLut();
+			lutCurves = Allocation.createSized(rs, Element.RGBA_8888(rs), 256);
+			lutCurves.copyFrom(colorLut.curves);
+			lutScript.set_gCurves(lutCurves);
+			int size = colorLut.cubeSize;
+			if (size > 1) {
+				byte[] cube = new byte[colorLut.cube.length * 4];
+				for (int i = 0; i < colorLut.cube.length; i++) {
+					int color = colorLut.cube[i];
+					cube[i * 4] = (byte) (color >> 16);
+					cube[i * 4 + 1] = (byte) (color >> 8);
+					cube[i * 4 + 2] = (byte) color;
+					cube[i * 4 + 3] = (byte) 255;
+				}
+				lutCube = Allocation.createTyped(rs, new Type.Builder(rs, Element.RGBA_8888(rs)).setX(size).setY(size).setZ(size).create());
+				lutCube.copyFrom(cube);
+				lutScript.set_gCube(lutCube);
+			}
+			lutScript.set_gCubeSize(size > 1 ? size : 0);
+			lut = colorLut;
+		}
+		pixels.copyFrom(src);
+		lutScript.forEach_lut(pixels, output);
+		output.copyTo(dst);
+	}
+
+	private void destroyLut() {
+		if (lutCurves != null) {
+			lutCurves.destroy();
+			lutCurves = null;
+		}
+		if (lutCube != null) {
+			lutCube.destroy();
+			lutCube = null;
+		}
+		lut = null;
+	}
+
+	/**
+	 * (Re)creates the allocations if the dimensions changed since the last call.
+	 */
+	private void prepare(int newWidth, int newHeight) {
+		if (pixels != null && newWidth == width && newHeight == height) return;
+		destroyAllocations();
+		QUFactory.QLog.debug("prepare width=" + newWidth + " height=" + newHeight);
+		width = newWidth;
+		height = newHeight;
+		pixels = Allocation.createTyped(rs, Type.createXY(rs, Element.RGBA_8888(rs), width, height));
+		rowIndices = createIndices(rs, height);
+		columnIndices = createIndices(rs, width);
+	}
+
+	/**
+	 * @return An allocation of {@code count} consecutive indices, the input of the {@code stackblur.rs} line kernels.
+	 */
+	static Allocation createIndices(RenderScript rs, int count) {
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = i;
+		}
+		Allocation allocation = Allocation.createSized(rs, Element.U32(rs), count);
+		allocation.copyFrom(indices);
+		return allocation;
+	}
+
+	private void destroyAllocations() {
+		if (pixels != null) {
+			pixels.destroy();
+			rowIndices.destroy();
+			columnIndices.destroy();
+			pixels = null;
+		}
+		if (output != null) {
+			output.destroy();
+			output = null;
+		}
+	}
+
+	/**
+	 * Frees the allocations, they are recreated on the next call.
+	 */
+	synchronized void trimMemory() {
+		destroyAllocations();
+		destroyLut();
+	}
+}
@@ -11,15 +11,15 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
 
-import quickutils.core.QUFactory.QDate;
 import quickutils.core.QUFactory.QLog;
 import android.os.Environment;
 
 public class SDcardUtils {
 
+     private static final String       LOG_TIMESTAMP_FORMAT = "yyyy/MM/dd HH:mm:ss.SSS";
+     private static TimestampFormatter logTimestampFormatter;
+
      SDcardUtils () {
      }
 
@@ -260,7 +260,7 @@ public class SDcardUtils {
                     File file = new File(logFilePath);
                     OutputStream os = new FileOutputStream(file, true);
                     if ( isDetailed ) {
-                         os.write(("---" + new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS", Locale.getDefault()).format(QDate.getCurrentDate()) + "---\n").getBytes());
+                         os.write(("---" + getLogTimestampFormatter().format(System.currentTimeMillis()) + "---\n").getBytes());
                     }
                     os.write((text + "\n").getBytes());
                     // os.write(("------\n").getBytes());
@@ -273,6 +273,18 @@ public class SDcardUtils {
           }
      }
 
+     /**
+      * @return the formatter of the log timestamps, compiled again if the default timezone changed
+      */
+     private static TimestampFormatter getLogTimestampFormatter() {
+          TimestampFormatter formatter = logTimestampFormatter;
+          if ( formatter == null || !formatter.isInDefaultTimeZone() ) {
+               formatter = TimestampFormatter.compile(LOG_TIMESTAMP_FORMAT, null);
+               logTimestampFormatter = formatter;
+          }
+          return formatter;
+     }
+
      /**
       * Writes a file to Disk.
       * This is an I/O operation and this method executes in the main thread, so it is recommended to
@@ -0,0 +1,95 @@
+package quickutils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Memory mapped scratch file, used to spill large buffers to disk instead of holding two copies in memory.<br/>
+ * A mapping is {@link #obtain() obtained} for the duration of a spill and {@link #recycle() recycled} in a finally
+ * block. One idle mapping is kept between spills and grown (never shrunk) when a larger buffer is needed, so that
+ * repeated spills only cost the copies in and out of the mapping. Threads spilling at the same time get their own
+ * mapping, closed when recycled. No thread keeps a mapping once its spill is done.
+ */
+final class ScratchMapping {
+
+	private static final int							MIN_SIZE	= 1024 * 1024;
+
+	private static final AtomicReference<ScratchMapping>	IDLE		= new AtomicReference<ScratchMapping>();
+
+	private final RandomAccessFile						file;
+	private final FileChannel							channel;
+	private MappedByteBuffer							buffer;
+
+	private ScratchMapping() throws IOException {
+		File tmpFile = File.createTempFile("scratch", null);
+		QUFactory.QLog.debug("ScratchMapping tmpFile=" + tmpFile + " thread=" + Thread.currentThread().getName());
+		file = new RandomAccessFile(tmpFile, "rw");
+		channel = file.getChannel();
+		// The open descriptor keeps the file alive, nothing is left behind if the process dies
+		tmpFile.delete();
+	}
+
+	/**
+	 * @return The idle mapping, or a new one if another thread is using it. It must be {@link #recycle() recycled}.
+	 */
+	static ScratchMapping obtain() throws IOException {
+		ScratchMapping mapping = IDLE.getAndSet(null);
+		return mapping != null ? mapping : new ScratchMapping();
+	}
+
+	/**
+	 * Closes the idle scratch file, if any.
+	 */
+	static void release() {
+		ScratchMapping mapping = IDLE.getAndSet(null);
+		if (mapping != null) {
+			mapping.close();
+		}
+	}
+
+	/**
+	 * Keeps this mapping for the next {@link #obtain()}, or closes it if another one is already kept. It must not be
+	 * used afterwards.
+	 */
+	void recycle() {
+		if (!IDLE.compareAndSet(null, this)) {
+			close();
+		}
+	}
+
+	private void close() {
+		buffer = null;
+		SDcardUtils.closeSilently(channel, file);
+	}
+
+	/**
+	 * Returns the scratch buffer, with its position at 0 and its limit at {@code size}.<br/>
+	 * The content is only valid until the next call.
+	 *
+	 * @param size
+	 *            The number of bytes needed.
+	 */
+	ByteBuffer map(int size) throws IOException {
+		if (buffer == null || buffer.capacity() < size) {
+			int capacity = MIN_SIZE;
+			while (capacity < size && capacity > 0) {
+				capacity <<= 1;
+			}
+			if (capacity <= 0) {
+				capacity = size;
+			}
+			QUFactory.QLog.debug("map growing to capacity=" + capacity);
+			buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+}
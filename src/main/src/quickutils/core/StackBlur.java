@@ -0,0 +1,283 @@
+package quickutils.core;
+
+/**
+ * Pure Java port of the {@code stackblur.rs} RenderScript kernel, for devices where RenderScript is unavailable and for
+ * running the blur on the JVM.<br/>
+ * It uses the same tables and the same integer arithmetic as the kernel, including its in-place processing, so that both
+ * produce bit-identical results on the same pixels. Pixels are packed in {@code int}s with the alpha in the top byte:
+ * to match the kernel they must be the premultiplied pixels copied by {@link android.graphics.Bitmap#copyPixelsToBuffer}
+ * (the three color channels are processed the same way, so their order does not matter).<br/>
+ * The horizontal pass is split across cores by bands of rows, then the vertical pass by bands of columns.
+ */
+public final class StackBlur {
+
+	/** Largest supported radius. */
+	public static final int				MAX_RADIUS		= 254;
+
+	// @formatter:off
+	private static final short[]		STACKBLUR_MUL	= {
+		512,512,456,512,328,456,335,512,405,328,271,456,388,335,292,512,
+		454,405,364,328,298,271,496,456,420,388,360,335,312,292,273,512,
+		482,454,428,405,383,364,345,328,312,298,284,271,259,496,475,456,
+		437,420,404,388,374,360,347,335,323,312,302,292,282,273,265,512,
+		497,482,468,454,441,428,417,405,394,383,373,364,354,345,337,328,
+		320,312,305,298,291,284,278,271,265,259,507,496,485,475,465,456,
+		446,437,428,420,412,404,396,388,381,374,367,360,354,347,341,335,
+		329,323,318,312,307,302,297,292,287,282,278,273,269,265,261,512,
+		505,497,489,482,475,468,461,454,447,441,435,428,422,417,411,405,
+		399,394,389,383,378,373,368,364,359,354,350,345,341,337,332,328,
+		324,320,316,312,309,305,301,298,294,291,287,284,281,278,274,271,
+		268,265,262,259,257,507,501,496,491,485,480,475,470,465,460,456,
+		451,446,442,437,433,428,424,420,416,412,408,404,400,396,392,388,
+		385,381,377,374,370,367,363,360,357,354,350,347,344,341,338,335,
+		332,329,326,323,320,318,315,312,310,307,304,302,299,297,294,292,
+		289,287,285,282,280,278,275,273,271,269,267,265,263,261,259
+	};
+
+	private static final byte[]			STACKBLUR_SHR	= {
+		9, 11, 12, 13, 13, 14, 14, 15, 15, 15, 15, 16, 16, 16, 16, 17,
+		17, 17, 17, 17, 17, 17, 18, 18, 18, 18, 18, 18, 18, 18, 18, 19,
+		19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 20, 20, 20,
+		20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 21,
+		21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 21,
+		21, 21, 21, 21, 21, 21, 21, 21, 21, 21, 22, 22, 22, 22, 22, 22,
+		22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22,
+		22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 22, 23,
+		23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23,
+		23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23,
+		23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23, 23,
+		23, 23, 23, 23, 23, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24,
+		24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24,
+		24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24,
+		24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24,
+		24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24
+	};
+	// @formatter:on
+
+	/** Below this many pixels per band, a pass is not worth splitting across threads. */
+	private static final int			MIN_BAND_PIXELS	= 64 * 1024;
+
+	private StackBlur() {}
+
+	/**
+	 * Blurs the given pixels in place, using all cores.
+	 *
+	 * @param pixels
+	 *            The pixels, row after row, alpha in the top byte.
+	 * @param width
+	 *            Width of the image.
+	 * @param height
+	 *            Height of the image.
+	 * @param radius
+	 *            Blur radius 1..254, clamped.
+	 */
+	public static void blur(final int[] pixels, final int width, final int height, int radius) {
+		if (width <= 0 || height <= 0) return;
+		final int r = Math.max(1, Math.min(MAX_RADIUS, radius));
+		ParallelLoop.run(height, Math.max(1, MIN_BAND_PIXELS / width), new ParallelLoop.Body() {
+
+			@Override public void run(int from, int to) {
+				blurRows(pixels, width, height, r, from, to);
+			}
+		});
+		ParallelLoop.run(width, Math.max(1, MIN_BAND_PIXELS / height), new ParallelLoop.Body() {
+
+			@Override public void run(int from, int to) {
+				blurColumns(pixels, width, height, r, from, to);
+			}
+		});
+	}
+
+	/**
+	 * Horizontal pass ({@code blur_h}) over the rows {@code [fromRow, toRow)}, on the calling thread.
+	 */
+	public static void blurRows(int[] pixels, int width, int height, int radius, int fromRow, int toRow) {
+		int wm = width - 1;
+		int div = (radius * 2) + 1;
+		int mulSum = STACKBLUR_MUL[radius];
+		int shrSum = STACKBLUR_SHR[radius];
+		int[] stack = new int[div];
+
+		for (int y = fromRow; y < toRow; y++) {
+			int sum0 = 0, sum1 = 0, sum2 = 0;
+			int sumIn0 = 0, sumIn1 = 0, sumIn2 = 0;
+			int sumOut0 = 0, sumOut1 = 0, sumOut2 = 0;
+
+			int srcI = width * y;
+			for (int i = 0; i <= radius; i++) {
+				int pixel = pixels[srcI];
+				stack[i] = pixel;
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sumOut0 += c0;
+				sumOut1 += c1;
+				sumOut2 += c2;
+				sum0 += c0 * (i + 1);
+				sum1 += c1 * (i + 1);
+				sum2 += c2 * (i + 1);
+			}
+			for (int i = 1; i <= radius; i++) {
+				if (i <= wm) srcI += 1;
+				int pixel = pixels[srcI];
+				stack[i + radius] = pixel;
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sum0 += c0 * (radius + 1 - i);
+				sum1 += c1 * (radius + 1 - i);
+				sum2 += c2 * (radius + 1 - i);
+				sumIn0 += c0;
+				sumIn1 += c1;
+				sumIn2 += c2;
+			}
+
+			int sp = radius;
+			int xp = radius;
+			if (xp > wm) xp = wm;
+			srcI = xp + y * width;
+			int dstI = y * width;
+			for (int x = 0; x < width; x++) {
+				pixels[dstI] = output(pixels[dstI], sum0, sum1, sum2, mulSum, shrSum);
+				dstI += 1;
+
+				sum0 -= sumOut0;
+				sum1 -= sumOut1;
+				sum2 -= sumOut2;
+
+				int stackStart = sp + div - radius;
+				if (stackStart >= div) stackStart -= div;
+
+				int pixel = stack[stackStart];
+				sumOut0 -= pixel & 0xff;
+				sumOut1 -= (pixel >>> 8) & 0xff;
+				sumOut2 -= (pixel >>> 16) & 0xff;
+
+				if (xp < wm) {
+					srcI += 1;
+					++xp;
+				}
+
+				pixel = pixels[srcI];
+				stack[stackStart] = pixel;
+				sumIn0 += pixel & 0xff;
+				sumIn1 += (pixel >>> 8) & 0xff;
+				sumIn2 += (pixel >>> 16) & 0xff;
+				sum0 += sumIn0;
+				sum1 += sumIn1;
+				sum2 += sumIn2;
+
+				++sp;
+				if (sp >= div) sp = 0;
+				pixel = stack[sp];
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sumOut0 += c0;
+				sumOut1 += c1;
+				sumOut2 += c2;
+				sumIn0 -= c0;
+				sumIn1 -= c1;
+				sumIn2 -= c2;
+			}
+		}
+	}
+
+	/**
+	 * Vertical pass ({@code blur_v}) over the columns {@code [fromColumn, toColumn)}, on the calling thread.
+	 */
+	public static void blurColumns(int[] pixels, int width, int height, int radius, int fromColumn, int toColumn) {
+		int hm = height - 1;
+		int div = (radius * 2) + 1;
+		int mulSum = STACKBLUR_MUL[radius];
+		int shrSum = STACKBLUR_SHR[radius];
+		int[] stack = new int[div];
+
+		for (int x = fromColumn; x < toColumn; x++) {
+			int sum0 = 0, sum1 = 0, sum2 = 0;
+			int sumIn0 = 0, sumIn1 = 0, sumIn2 = 0;
+			int sumOut0 = 0, sumOut1 = 0, sumOut2 = 0;
+
+			int srcI = x;
+			for (int i = 0; i <= radius; i++) {
+				int pixel = pixels[srcI];
+				stack[i] = pixel;
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sum0 += c0 * (i + 1);
+				sum1 += c1 * (i + 1);
+				sum2 += c2 * (i + 1);
+				sumOut0 += c0;
+				sumOut1 += c1;
+				sumOut2 += c2;
+			}
+			for (int i = 1; i <= radius; i++) {
+				if (i <= hm) srcI += width;
+				int pixel = pixels[srcI];
+				stack[i + radius] = pixel;
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sum0 += c0 * (radius + 1 - i);
+				sum1 += c1 * (radius + 1 - i);
+				sum2 += c2 * (radius + 1 - i);
+				sumIn0 += c0;
+				sumIn1 += c1;
+				sumIn2 += c2;
+			}
+
+			int sp = radius;
+			int yp = radius;
+			if (yp > hm) yp = hm;
+			srcI = x + yp * width;
+			int dstI = x;
+			for (int y = 0; y < height; y++) {
+				pixels[dstI] = output(pixels[dstI], sum0, sum1, sum2, mulSum, shrSum);
+				dstI += width;
+
+				sum0 -= sumOut0;
+				sum1 -= sumOut1;
+				sum2 -= sumOut2;
+
+				int stackStart = sp + div - radius;
+				if (stackStart >= div) stackStart -= div;
+
+				int pixel = stack[stackStart];
+				sumOut0 -= pixel & 0xff;
+				sumOut1 -= (pixel >>> 8) & 0xff;
+				sumOut2 -= (pixel >>> 16) & 0xff;
+
+				if (yp < hm) {
+					srcI += width;
+					++yp;
+				}
+
+				pixel = pixels[srcI];
+				stack[stackStart] = pixel;
+				sumIn0 += pixel & 0xff;
+				sumIn1 += (pixel >>> 8) & 0xff;
+				sumIn2 += (pixel >>> 16) & 0xff;
+				sum0 += sumIn0;
+				sum1 += sumIn1;
+				sum2 += sumIn2;
+
+				++sp;
+				if (sp >= div) sp = 0;
+				pixel = stack[sp];
+				int c0 = pixel & 0xff, c1 = (pixel >>> 8) & 0xff, c2 = (pixel >>> 16) & 0xff;
+				sumOut0 += c0;
+				sumOut1 += c1;
+				sumOut2 += c2;
+				sumIn0 -= c0;
+				sumIn1 -= c1;
+				sumIn2 -= c2;
+			}
+		}
+	}
+
+	/**
+	 * Computes an output pixel like the kernel: {@code (sum * mul) >> shr} in unsigned 32 bit arithmetic truncated to a
+	 * byte, the alpha of the pixel being replaced, then each channel clamped to that alpha.
+	 */
+	private static int output(int current, int sum0, int sum1, int sum2, int mulSum, int shrSum) {
+		int alpha = current >>> 24;
+		int c0 = ((sum0 * mulSum) >>> shrSum) & 0xff;
+		int c1 = ((sum1 * mulSum) >>> shrSum) & 0xff;
+		int c2 = ((sum2 * mulSum) >>> shrSum) & 0xff;
+		if (c0 > alpha) c0 = alpha;
+		if (c1 > alpha) c1 = alpha;
+		if (c2 > alpha) c2 = alpha;
+		return (alpha << 24) | (c2 << 16) | (c1 << 8) | c0;
+	}
+}
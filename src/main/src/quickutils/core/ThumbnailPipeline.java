@@ -0,0 +1,458 @@
+package quickutils.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+
+
+/**
+ * Generates thumbnails for a batch of image files.<br/>
+ * The work is split in three stages, reading the files, decoding them into thumbnails and writing the thumbnails, each
+ * running on its own threads and connected to the next one by a bounded queue: a stage that runs ahead blocks until the
+ * next one catches up. The number of decoded bitmaps alive at any time is capped by
+ * {@link #setMaxBitmapsInFlight(int)}.<br/>
+ * Each thumbnail is written in the output directory under the name of its source file, with the extension of the
+ * format it is encoded to (e.g. {@code photo.png} gives {@code photo.jpg} when encoded as JPEG). When two sources of
+ * the batch give the same name (e.g. {@code a/photo.png} and {@code b/photo.jpg}), the later ones get a numbered name
+ * such as {@code photo-1.jpg} rather than overwriting the first.<br/>
+ * An exception thrown by the callback is logged and does not stop the batch.
+ */
+public class ThumbnailPipeline {
+
+	/**
+	 * Receives the result of each item and the end of the batch.<br/>
+	 * Methods are called on the pipeline's threads.
+	 */
+	public interface Callback {
+
+		void onThumbnailCreated(File source, File thumbnail);
+
+		void onThumbnailFailed(File source, Throwable error);
+
+		/**
+		 * @param cancelled
+		 *            {@code true} if the batch was stopped by {@link ThumbnailPipeline#cancel()}, or because a stage
+		 *            failed unexpectedly.
+		 */
+		void onFinished(boolean cancelled);
+	}
+
+	private static class Item {
+
+		File	source;
+		byte[]	data;
+		int		rotation;
+		Bitmap	bitmap;
+	}
+
+	private static final Item				END				= new Item();
+
+	private final File						outputDirectory;
+	private final int						maxWidth;
+	private final int						maxHeight;
+	private int								readThreads		= 1;
+	private int								decodeThreads	= Runtime.getRuntime().availableProcessors();
+	private int								writeThreads	= 1;
+	private int								queueCapacity	= 4;
+	private int								maxBitmapsInFlight	= 4;
+	private ImageUtils.EncodeOptions		encodeOptions	= new ImageUtils.EncodeOptions();
+	private Callback						callback;
+
+	private ConcurrentLinkedQueue<File>		sources;
+	/** Names of the thumbnails written by this batch, lower case for case insensitive file systems. */
+	private final ConcurrentHashMap<String, File>	names		= new ConcurrentHashMap<String, File>();
+	private BlockingQueue<Item>				readQueue;
+	private BlockingQueue<Item>				decodeQueue;
+	private Semaphore						bitmapPermits;
+	private ExecutorService					executor;
+	private final AtomicInteger				readersLeft		= new AtomicInteger();
+	private final AtomicInteger				decodersLeft	= new AtomicInteger();
+	/** Threads of all the stages still running, the batch is finished when the last one exits. */
+	private final AtomicInteger				threadsLeft		= new AtomicInteger();
+	private final CountDownLatch			finished		= new CountDownLatch(1);
+	private volatile boolean				cancelled;
+
+	/**
+	 * @param outputDirectory
+	 *            The existing directory the thumbnails are written to.
+	 * @param maxWidth
+	 *            The wanted maximum width of the thumbnails.
+	 * @param maxHeight
+	 *            The wanted maximum height of the thumbnails.
+	 */
+	public ThumbnailPipeline(File outputDirectory, int maxWidth, int maxHeight) {
+		this.outputDirectory = outputDirectory;
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+	}
+
+	/**
+	 * @param threads
+	 *            Number of threads reading the source files (default is 1).
+	 */
+	public void setReadThreads(int threads) {
+		this.readThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param threads
+	 *            Number of threads decoding the thumbnails (default is the number of cores).
+	 */
+	public void setDecodeThreads(int threads) {
+		this.decodeThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param threads
+	 *            Number of threads encoding and writing the thumbnails (default is 1).
+	 */
+	public void setWriteThreads(int threads) {
+		this.writeThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param capacity
+	 *            Number of items each queue between two stages can hold before the upstream stage blocks (default is 4).
+	 */
+	public void setQueueCapacity(int capacity) {
+		this.queueCapacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * @param max
+	 *            Maximum number of decoded bitmaps alive at the same time, being decoded, queued or written (default is
+	 *            4).
+	 */
+	public void setMaxBitmapsInFlight(int max) {
+		this.maxBitmapsInFlight = Math.max(1, max);
+	}
+
+	/**
+	 * @param options
+	 *            The options thumbnails are encoded with (default picks JPEG or PNG/WebP depending on alpha).
+	 */
+	public void setEncodeOptions(ImageUtils.EncodeOptions options) {
+		this.encodeOptions = options;
+	}
+
+	/**
+	 * @param callback
+	 *            The callback receiving the results, or {@code null}.
+	 */
+	public void setCallback(Callback callback) {
+		this.callback = callback;
+	}
+
+	/**
+	 * Starts generating the thumbnails of the given files.<br/>
+	 * A pipeline can only be started once.
+	 *
+	 * @param files
+	 *            The source image files.
+	 */
+	public synchronized void start(Collection<File> files) {
+		if (executor != null) throw new IllegalStateException("ThumbnailPipeline already started");
+		QUFactory.QLog.debug("start files=" + files.size() + " readThreads=" + readThreads + " decodeThreads=" + decodeThreads + " writeThreads=" + writeThreads);
+		sources = new ConcurrentLinkedQueue<File>(files);
+		readQueue = new ArrayBlockingQueue<Item>(queueCapacity + decodeThreads);
+		decodeQueue = new ArrayBlockingQueue<Item>(queueCapacity + writeThreads);
+		bitmapPermits = new Semaphore(maxBitmapsInFlight);
+		readersLeft.set(readThreads);
+		decodersLeft.set(decodeThreads);
+		threadsLeft.set(readThreads + decodeThreads + writeThreads);
+		executor = Executors.newFixedThreadPool(readThreads + decodeThreads + writeThreads, new ThreadFactory() {
+
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ThumbnailPipeline-" + count.incrementAndGet());
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+		for (int i = 0; i < readThreads; i++) {
+			executor.execute(new Runnable() {
+
+				@Override public void run() {
+					try {
+						read();
+					}
+					catch (Throwable e) {
+						stageFailed(e);
+					} finally {
+						threadExited();
+					}
+				}
+			});
+		}
+		for (int i = 0; i < decodeThreads; i++) {
+			executor.execute(new Runnable() {
+
+				@Override public void run() {
+					try {
+						decode();
+					}
+					catch (Throwable e) {
+						stageFailed(e);
+					} finally {
+						threadExited();
+					}
+				}
+			});
+		}
+		for (int i = 0; i < writeThreads; i++) {
+			executor.execute(new Runnable() {
+
+				@Override public void run() {
+					try {
+						write();
+					}
+					catch (Throwable e) {
+						stageFailed(e);
+					} finally {
+						threadExited();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops the batch as soon as possible: items not written yet are dropped and their bitmaps recycled.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the batch to finish, or to be cancelled.
+	 *
+	 * @return {@code true} if the batch finished, {@code false} if the timeout elapsed first.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	private void read() {
+		try {
+			File source;
+			while (!cancelled && (source = sources.poll()) != null) {
+				Item item = new Item();
+				item.source = source;
+				try {
+					item.data = readFully(source);
+					item.rotation = ImageUtils.getExifRotation(source);
+				}
+				catch (IOException e) {
+					fail(source, e);
+					continue;
+				}
+				catch (OutOfMemoryError e) {
+					// A file too large to hold, the next ones may still fit
+					fail(source, e);
+					continue;
+				}
+				if (!offer(readQueue, item)) return;
+			}
+		} finally {
+			if (readersLeft.decrementAndGet() == 0) {
+				for (int i = 0; i < decodeThreads; i++) {
+					offer(readQueue, END);
+				}
+			}
+		}
+	}
+
+	private void decode() {
+		try {
+			while (!cancelled) {
+				Item item = readQueue.take();
+				if (item == END) return;
+				bitmapPermits.acquire();
+				Throwable error = null;
+				try {
+					item.bitmap = ImageUtils.decodeThumbnail(item.data, item.rotation, maxWidth, maxHeight);
+				}
+				catch (OutOfMemoryError e) {
+					error = e;
+				}
+				catch (RuntimeException e) {
+					// e.g. IllegalArgumentException from BitmapFactory on a corrupted image
+					error = e;
+				} finally {
+					item.data = null;
+					if (item.bitmap == null) {
+						bitmapPermits.release();
+					}
+				}
+				if (item.bitmap == null) {
+					fail(item.source, error != null ? error : new IOException("Could not decode " + item.source));
+					continue;
+				}
+				if (!offer(decodeQueue, item)) {
+					recycle(item);
+					return;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// Cancelled
+		} finally {
+			if (decodersLeft.decrementAndGet() == 0) {
+				for (int i = 0; i < writeThreads; i++) {
+					offer(decodeQueue, END);
+				}
+			}
+		}
+	}
+
+	private void write() {
+		try {
+			while (!cancelled) {
+				Item item = decodeQueue.take();
+				if (item == END) return;
+				File thumbnail = null;
+				Throwable error = null;
+				try {
+					thumbnail = ImageUtils.saveBitmap(item.bitmap, getThumbnailName(item), outputDirectory.getPath(), false, encodeOptions);
+				}
+				catch (Throwable e) {
+					// e.g. OutOfMemoryError while compressing, the next items may still fit
+					error = e;
+				} finally {
+					recycle(item);
+				}
+				if (thumbnail == null) {
+					fail(item.source, error != null ? error : new IOException("Could not write thumbnail of " + item.source));
+				} else if (callback != null) {
+					try {
+						callback.onThumbnailCreated(item.source, thumbnail);
+					}
+					catch (Throwable e) {
+						QUFactory.QLog.error("onThumbnailCreated failed source=" + item.source, e);
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// Cancelled
+		}
+	}
+
+	/**
+	 * Cancels the batch when a stage thread dies unexpectedly, so that the other stages do not wait for it forever.
+	 */
+	private void stageFailed(Throwable error) {
+		QUFactory.QLog.error("ThumbnailPipeline stage failed, cancelling", error);
+		cancel();
+	}
+
+	/**
+	 * Finishes the batch once the threads of every stage have exited, so that no cancelled decoder still holds a bitmap
+	 * after {@link Callback#onFinished(boolean)}.
+	 */
+	private void threadExited() {
+		if (threadsLeft.decrementAndGet() > 0) return;
+		// Release what a cancellation left behind
+		Item item;
+		while ((item = decodeQueue.poll()) != null) {
+			if (item != END) recycle(item);
+		}
+		readQueue.clear();
+		finished.countDown();
+		QUFactory.QLog.debug("finished cancelled=" + cancelled);
+		if (callback != null) {
+			callback.onFinished(cancelled);
+		}
+	}
+
+	/**
+	 * Blocking put that gives up when the pipeline is cancelled, so that no stage stays stuck on a full queue.
+	 */
+	private boolean offer(BlockingQueue<Item> queue, Item item) {
+		try {
+			while (!cancelled) {
+				if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) return true;
+			}
+		}
+		catch (InterruptedException e) {
+			// Cancelled
+		}
+		return false;
+	}
+
+	private void recycle(Item item) {
+		if (item.bitmap != null) {
+			item.bitmap.recycle();
+			item.bitmap = null;
+			bitmapPermits.release();
+		}
+	}
+
+	/**
+	 * @return The name of the source file with the extension of the format the thumbnail is encoded to, numbered if
+	 *         another source of the batch already took it.
+	 */
+	private String getThumbnailName(Item item) {
+		String base = item.source.getName();
+		int dot = base.lastIndexOf('.');
+		if (dot > 0) {
+			base = base.substring(0, dot);
+		}
+		String extension = '.' + ImageUtils.EncodeOptions.getExtension(encodeOptions.getCompressFormat(item.bitmap));
+		String name = base + extension;
+		for (int i = 1; names.putIfAbsent(name.toLowerCase(Locale.US), item.source) != null; i++) {
+			name = base + '-' + i + extension;
+		}
+		return name;
+	}
+
+	private void fail(File source, Throwable error) {
+		QUFactory.QLog.debug("fail source=" + source, error);
+		if (callback != null) {
+			try {
+				callback.onThumbnailFailed(source, error);
+			}
+			catch (Throwable e) {
+				QUFactory.QLog.error("onThumbnailFailed failed source=" + source, e);
+			}
+		}
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			long length = file.length();
+			if (length > Integer.MAX_VALUE) throw new IOException("File too large: " + file);
+			byte[] data = new byte[(int) length];
+			int offset = 0;
+			while (offset < data.length) {
+				int read = in.read(data, offset, data.length - offset);
+				if (read < 0) throw new IOException("Unexpected end of file: " + file);
+				offset += read;
+			}
+			return data;
+		} finally {
+			SDcardUtils.closeSilently(in);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package quickutils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.support.v4.util.LruCache;
+
+
+/**
+ * Decodes a large image tile by tile using {@link BitmapRegionDecoder}, so that only the visible part of the image is kept
+ * in memory, at the sample level needed by the current zoom.<br/>
+ * Decoded tiles are kept in an LRU cache bounded in bytes, and tiles around the visible region are prefetched on a
+ * background thread.
+ */
+@SuppressLint("NewApi") public class TiledBitmapDecoder {
+
+	/**
+	 * Listener notified when a tile requested by {@link TiledBitmapDecoder#getVisibleTiles(Rect, float, List)} has been
+	 * decoded.<br/>
+	 * It is called on the decoder's background thread.
+	 */
+	public interface OnTileDecodedListener {
+
+		void onTileDecoded(Tile tile);
+	}
+
+	/**
+	 * A decoded tile.
+	 */
+	public static class Tile {
+
+		/** Column of the tile in the grid of its sample size. */
+		public final int	column;
+		/** Row of the tile in the grid of its sample size. */
+		public final int	row;
+		/** Sample size the tile was decoded with. */
+		public final int	sampleSize;
+		/** Region of the full resolution image covered by the tile. */
+		public final Rect	bounds;
+		/** The decoded pixels, {@code bounds} downsampled by {@code sampleSize}. */
+		public final Bitmap	bitmap;
+
+		Tile(int column, int row, int sampleSize, Rect bounds, Bitmap bitmap) {
+			this.column = column;
+			this.row = row;
+			this.sampleSize = sampleSize;
+			this.bounds = bounds;
+			this.bitmap = bitmap;
+		}
+	}
+
+	private final BitmapRegionDecoder		decoder;
+	private final int						imageWidth;
+	private final int						imageHeight;
+	private final int						tileSize;
+	private final LruCache<Long, Tile>		cache;
+	private final ExecutorService			executor;
+	private final Set<Long>					pending		= new HashSet<Long>();
+	private volatile Set<Long>				wanted		= Collections.emptySet();
+	private volatile OnTileDecodedListener	listener;
+	private volatile Bitmap.Config			preferredConfig;
+	private volatile int					prefetchBorder	= 1;
+
+	/**
+	 * @param imageFile
+	 *            The JPEG or PNG file to decode.
+	 * @param tileSize
+	 *            Size in pixels of the side of a decoded tile, whatever the sample size.
+	 * @param maxCacheBytes
+	 *            Maximum number of bytes of decoded tiles kept in memory.
+	 * @throws IOException
+	 *             If the image could not be opened.
+	 */
+	public TiledBitmapDecoder(File imageFile, int tileSize, int maxCacheBytes) throws IOException {
+		QUFactory.QLog.debug("TiledBitmapDecoder imageFile=" + imageFile + " tileSize=" + tileSize + " maxCacheBytes=" + maxCacheBytes);
+		this.decoder = BitmapRegionDecoder.newInstance(imageFile.getPath(), false);
+		this.imageWidth = decoder.getWidth();
+		this.imageHeight = decoder.getHeight();
+		this.tileSize = tileSize;
+		this.cache = new LruCache<Long, Tile>(maxCacheBytes) {
+
+			@Override protected int sizeOf(Long key, Tile tile) {
+				return tile.bitmap.getRowBytes() * tile.bitmap.getHeight();
+			}
+		};
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TiledBitmapDecoder");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return The width of the full resolution image.
+	 */
+	public int getImageWidth() {
+		return imageWidth;
+	}
+
+	/**
+	 * @return The height of the full resolution image.
+	 */
+	public int getImageHeight() {
+		return imageHeight;
+	}
+
+	/**
+	 * @param listener
+	 *            The listener notified when an asynchronously requested tile is ready, or {@code null}.
+	 */
+	public void setOnTileDecodedListener(OnTileDecodedListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param config
+	 *            The config tiles are decoded with (e.g. {@link Bitmap.Config#RGB_565} to halve the memory of opaque
+	 *            images), or {@code null} to let the decoder choose.
+	 */
+	public void setPreferredConfig(Bitmap.Config config) {
+		this.preferredConfig = config;
+	}
+
+	/**
+	 * @param border
+	 *            Number of rings of tiles around the visible region that are prefetched (default is 1, 0 disables
+	 *            prefetching).
+	 */
+	public void setPrefetchBorder(int border) {
+		this.prefetchBorder = Math.max(0, border);
+	}
+
+	/**
+	 * Returns the sample size to use for tiles displayed at the given scale: the largest power of two that does not
+	 * make the tiles smaller than their displayed size.
+	 *
+	 * @param scale
+	 *            Ratio between the displayed size and the full resolution size of the image (1 means 1:1).
+	 */
+	public static int calculateSampleSize(float scale) {
+		int sampleSize = 1;
+		if (scale > 0) {
+			while (sampleSize < 64 && sampleSize * 2 * scale <= 1f) {
+				sampleSize *= 2;
+			}
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * Fills {@code out} with the cached tiles covering the visible region of the image, and schedules the decoding of the
+	 * missing ones and of the tiles around them.<br/>
+	 * Tiles decoded in the background are reported to the {@link OnTileDecodedListener}, a following call will then
+	 * return them.
+	 *
+	 * @param visibleRegion
+	 *            The visible region, in full resolution image coordinates.
+	 * @param scale
+	 *            Ratio between the displayed size and the full resolution size of the image.
+	 * @param out
+	 *            The list receiving the available tiles, it is not cleared.
+	 * @return The number of visible tiles that are not available yet.
+	 */
+	public int getVisibleTiles(Rect visibleRegion, float scale, List<Tile> out) {
+		int sampleSize = calculateSampleSize(scale);
+		int span = tileSize * sampleSize;
+		int columns = (imageWidth + span - 1) / span;
+		int rows = (imageHeight + span - 1) / span;
+		int firstColumn = Math.max(0, visibleRegion.left / span);
+		int lastColumn = Math.min(columns - 1, (visibleRegion.right - 1) / span);
+		int firstRow = Math.max(0, visibleRegion.top / span);
+		int lastRow = Math.min(rows - 1, (visibleRegion.bottom - 1) / span);
+		int border = prefetchBorder;
+
+		Set<Long> newWanted = new HashSet<Long>();
+		int missing = 0;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				long key = key(column, row, sampleSize);
+				newWanted.add(key);
+				Tile tile = cache.get(key);
+				if (tile != null) {
+					out.add(tile);
+				} else {
+					missing++;
+				}
+			}
+		}
+		// Visible tiles are queued first, then the ring around them
+		for (int row = Math.max(0, firstRow - border); row <= Math.min(rows - 1, lastRow + border); row++) {
+			for (int column = Math.max(0, firstColumn - border); column <= Math.min(columns - 1, lastColumn + border); column++) {
+				newWanted.add(key(column, row, sampleSize));
+			}
+		}
+		wanted = newWanted;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				schedule(column, row, sampleSize);
+			}
+		}
+		for (int row = Math.max(0, firstRow - border); row <= Math.min(rows - 1, lastRow + border); row++) {
+			for (int column = Math.max(0, firstColumn - border); column <= Math.min(columns - 1, lastColumn + border); column++) {
+				if (row < firstRow || row > lastRow || column < firstColumn || column > lastColumn) {
+					schedule(column, row, sampleSize);
+				}
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Returns the given tile, decoding it on the calling thread if it is not cached.
+	 *
+	 * @return The tile, or {@code null} if it is outside of the image or could not be decoded.
+	 */
+	public Tile getTile(int column, int row, int sampleSize) {
+		long key = key(column, row, sampleSize);
+		Tile tile = cache.get(key);
+		if (tile == null) {
+			tile = decodeTile(column, row, sampleSize);
+			if (tile != null) {
+				cache.put(key, tile);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Releases the decoder and the cached tiles.<br/>
+	 * The decoder can no longer be used after this call.
+	 */
+	public void recycle() {
+		executor.shutdownNow();
+		wanted = Collections.emptySet();
+		cache.evictAll();
+		synchronized (decoder) {
+			decoder.recycle();
+		}
+	}
+
+	private void schedule(final int column, final int row, final int sampleSize) {
+		final long key = key(column, row, sampleSize);
+		if (cache.get(key) != null) return;
+		synchronized (pending) {
+			if (!pending.add(key)) return;
+		}
+		executor.execute(new Runnable() {
+
+			@Override public void run() {
+				try {
+					// The region may have scrolled away since this tile was requested
+					if (!wanted.contains(key) || cache.get(key) != null) return;
+					Tile tile = decodeTile(column, row, sampleSize);
+					if (tile == null) return;
+					cache.put(key, tile);
+					OnTileDecodedListener currentListener = listener;
+					if (currentListener != null) {
+						currentListener.onTileDecoded(tile);
+					}
+				} finally {
+					synchronized (pending) {
+						pending.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	private Tile decodeTile(int column, int row, int sampleSize) {
+		int span = tileSize * sampleSize;
+		int left = column * span;
+		int top = row * span;
+		if (column < 0 || row < 0 || left >= imageWidth || top >= imageHeight) return null;
+		Rect bounds = new Rect(left, top, Math.min(left + span, imageWidth), Math.min(top + span, imageHeight));
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = preferredConfig;
+		Bitmap bitmap;
+		try {
+			synchronized (decoder) {
+				if (decoder.isRecycled()) return null;
+				bitmap = decoder.decodeRegion(bounds, options);
+			}
+		}
+		catch (OutOfMemoryError e) {
+			QUFactory.QLog.debug("decodeTile Could not decode tile column=" + column + " row=" + row + " sampleSize=" + sampleSize + ", trimming cache", e);
+			cache.trimToSize(cache.maxSize() / 2);
+			return null;
+		}
+		if (bitmap == null) {
+			QUFactory.QLog.debug("decodeTile res=null");
+			return null;
+		}
+		return new Tile(column, row, sampleSize, bounds, bitmap);
+	}
+
+	private static long key(int column, int row, int sampleSize) {
+		return ((long) sampleSize << 48) | ((long) row << 24) | column;
+	}
+}
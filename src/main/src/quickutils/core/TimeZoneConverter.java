@@ -0,0 +1,149 @@
+package quickutils.core;
+
+/**
+ * Conversions between instants and local times of any timezone, backed by immutable offset transition tables resolved
+ * once per timezone ID and shared by all threads, instead of {@link java.util.TimeZone} lookups and clones per call.
+ * <br/>
+ * The bulk methods split large arrays across cores. Timezone IDs are e.g. "GMT" or "Europe/Paris", {@code null} being
+ * the default timezone.
+ */
+public final class TimeZoneConverter {
+
+     /** Below this many elements per band, the work is not worth splitting across threads. */
+     private static final int MIN_BAND = 16 * 1024;
+
+     private TimeZoneConverter () {
+     }
+
+     /**
+      * Builds the tables of the given timezones ahead of time, e.g. on a background thread at startup, as the first use
+      * of a timezone costs a few milliseconds.
+      */
+     public static void preload(String... timeZones) {
+          for (String timeZone : timeZones) {
+               ZoneOffsetTable.get(timeZone);
+          }
+     }
+
+     /**
+      * @return the offset from UTC of the timezone at the given instant, in milliseconds
+      */
+     public static int getOffset(long millis, String timeZone) {
+          return ZoneOffsetTable.get(timeZone).getOffset(millis);
+     }
+
+     /**
+      * @return the local time of the instant, in milliseconds since 1970-01-01 00:00 local time
+      */
+     public static long toLocalTime(long millis, String timeZone) {
+          return millis + ZoneOffsetTable.get(timeZone).getOffset(millis);
+     }
+
+     /**
+      * @param localTime
+      *             local time, in milliseconds since 1970-01-01 00:00 local time
+      * @return the instant of the local time, resolving daylight saving gaps and overlaps like
+      *         {@link java.util.Calendar}
+      */
+     public static long toInstant(long localTime, String timeZone) {
+          return localTime - ZoneOffsetTable.get(timeZone).getOffsetFromLocal(localTime);
+     }
+
+     /**
+      * Converts instants to local times in one timezone.
+      *
+      * @param src
+      *             the instants in epoch milliseconds
+      * @param dst
+      *             receives the local times, can be {@code src}
+      * @param count
+      *             the number of instants to convert
+      * @see #toLocalTime(long, String)
+      */
+     public static void toLocalTime(final long[] src, final long[] dst, int count, String timeZone) {
+          final ZoneOffsetTable table = ZoneOffsetTable.get(timeZone);
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                         dst[i] = src[i] + table.getOffset(src[i]);
+                    }
+               }
+          });
+     }
+
+     /**
+      * Converts instants to local times, each in its own timezone, e.g. for the users of a list. Consecutive elements
+      * with the same timezone share a single table lookup.
+      *
+      * @param timeZones
+      *             the timezone ID of each instant
+      * @see #toLocalTime(long[], long[], int, String)
+      */
+     public static void toLocalTime(final long[] src, final String[] timeZones, final long[] dst, int count) {
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    String timeZone = null;
+                    ZoneOffsetTable table = null;
+                    for (int i = from; i < to; i++) {
+                         if ( table == null || !sameId(timeZones[i], timeZone) ) {
+                              timeZone = timeZones[i];
+                              table = ZoneOffsetTable.get(timeZone);
+                         }
+                         dst[i] = src[i] + table.getOffset(src[i]);
+                    }
+               }
+          });
+     }
+
+     /**
+      * Converts instants to the fields of their local date and time in one timezone. Any of the destination arrays can
+      * be {@code null} when the field is not needed.
+      *
+      * @param years
+      *             receives the years
+      * @param months
+      *             receives the months, 0 for January like {@link java.util.Calendar#MONTH}
+      * @param days
+      *             receives the days of the month, 1..31
+      * @param millisOfDay
+      *             receives the times of day, in milliseconds since midnight
+      * @see #toLocalTime(long[], long[], int, String)
+      */
+     public static void toLocalFields(final long[] src, int count, String timeZone, final int[] years, final int[] months, final int[] days,
+                         final int[] millisOfDay) {
+          final ZoneOffsetTable table = ZoneOffsetTable.get(timeZone);
+          ParallelLoop.run(count, MIN_BAND, new ParallelLoop.Body() {
+
+               @Override
+               public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                         long local = src[i] + table.getOffset(src[i]);
+                         if ( millisOfDay != null ) {
+                              millisOfDay[i] = (int) EpochMath.floorMod(local, EpochMath.MILLIS_PER_DAY);
+                         }
+                         if ( years == null && months == null && days == null ) {
+                              continue;
+                         }
+                         int date = EpochMath.civilFromDays(EpochMath.floorDiv(local, EpochMath.MILLIS_PER_DAY));
+                         if ( years != null ) {
+                              years[i] = EpochMath.year(date);
+                         }
+                         if ( months != null ) {
+                              months[i] = EpochMath.month(date) - 1;
+                         }
+                         if ( days != null ) {
+                              days[i] = EpochMath.day(date);
+                         }
+                    }
+               }
+          });
+     }
+
+     private static boolean sameId(String a, String b) {
+          return a == null ? b == null : a.equals(b);
+     }
+}
@@ -0,0 +1,322 @@
+package quickutils.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formatter for fixed numeric patterns such as "yyyy-MM-dd HH:mm:ss" or "yyyy/MM/dd HH:mm:ss.SSS", compiled once and
+ * writing digits straight into a {@code char[]}, a {@link StringBuilder} or a {@link ByteBuffer}.<br/>
+ * Supported letters are {@code y} (yyyy or yy), {@code M}, {@code d}, {@code H}, {@code m}, {@code s} and {@code S},
+ * any other character is copied as is, and text between single quotes is a literal (e.g. "yyyy-MM-dd'T'HH:mm"). The
+ * date fields of the last formatted day are cached, so that formatting instants of the same day only computes the
+ * time of day.<br/>
+ * Instances are immutable and thread-safe.
+ */
+public final class TimestampFormatter {
+
+     private static final int   YEAR        = 0;
+     private static final int   YEAR_SHORT  = 1;
+     private static final int   MONTH       = 2;
+     private static final int   DAY         = 3;
+     private static final int   HOUR        = 4;
+     private static final int   MINUTE      = 5;
+     private static final int   SECOND      = 6;
+     private static final int   MILLIS      = 7;
+     private static final int   LITERAL     = 8;
+
+     private final String       pattern;
+     /** Offset table of the timezone, shared with {@link TimeZoneConverter}. */
+     private final ZoneOffsetTable table;
+     /** Field of each element, one of the constants above. */
+     private final int[]        fields;
+     /** Minimum number of digits of each element, or the literal character. */
+     private final int[]        values;
+     private final int          maxLength;
+
+     /**
+      * Fields of the day of the last formatted instant, valid from {@code validFrom} to {@code validTo} (exclusive),
+      * where the timezone offset is constant.
+      */
+     private static final class Day {
+
+          final long validFrom;
+          final long validTo;
+          /** Instant of the local midnight, as if the offset was constant over the whole day. */
+          final long start;
+          final int  year;
+          final int  month;
+          final int  day;
+
+          Day (long validFrom, long validTo, long start, int date) {
+               this.validFrom = validFrom;
+               this.validTo = validTo;
+               this.start = start;
+               this.year = EpochMath.year(date);
+               this.month = EpochMath.month(date);
+               this.day = EpochMath.day(date);
+          }
+     }
+
+     private volatile Day       lastDay;
+
+     private TimestampFormatter (String pattern, ZoneOffsetTable table) {
+          this.pattern = pattern;
+          this.table = table;
+          int[] fields = new int[pattern.length()];
+          int[] values = new int[pattern.length()];
+          int count = 0;
+          int maxLength = 0;
+          int i = 0;
+          while ( i < pattern.length() ) {
+               char c = pattern.charAt(i);
+               if ( c == '\'' ) {
+                    int end = pattern.indexOf('\'', i + 1);
+                    if ( end < 0 ) { throw new IllegalArgumentException("Unterminated quote in " + pattern); }
+                    if ( end == i + 1 ) {
+                         // '' is a quote
+                         fields[count] = LITERAL;
+                         values[count++] = '\'';
+                         maxLength++;
+                    }
+                    for (int j = i + 1; j < end; j++) {
+                         fields[count] = LITERAL;
+                         values[count++] = pattern.charAt(j);
+                         maxLength++;
+                    }
+                    i = end + 1;
+                    continue;
+               }
+               int run = 1;
+               while ( i + run < pattern.length() && pattern.charAt(i + run) == c ) {
+                    run++;
+               }
+               int field;
+               switch (c) {
+                    case 'y':
+                         field = run == 2 ? YEAR_SHORT : YEAR;
+                         run = run == 2 ? 2 : Math.max(4, run);
+                         break;
+                    case 'M':
+                         field = MONTH;
+                         if ( run > 2 ) { throw new IllegalArgumentException("Month names are not supported: " + pattern); }
+                         break;
+                    case 'd':
+                         field = DAY;
+                         break;
+                    case 'H':
+                         field = HOUR;
+                         break;
+                    case 'm':
+                         field = MINUTE;
+                         break;
+                    case 's':
+                         field = SECOND;
+                         break;
+                    case 'S':
+                         field = MILLIS;
+                         break;
+                    default:
+                         if ( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ) { throw new IllegalArgumentException("Unsupported pattern letter '" + c + "' in " + pattern); }
+                         for (int j = 0; j < run; j++) {
+                              fields[count] = LITERAL;
+                              values[count++] = c;
+                         }
+                         maxLength += run;
+                         i += run;
+                         continue;
+               }
+               fields[count] = field;
+               values[count++] = run;
+               maxLength += Math.max(run, field == YEAR ? 4 : field == MILLIS ? 3 : 2);
+               i += run;
+          }
+          this.fields = new int[count];
+          this.values = new int[count];
+          System.arraycopy(fields, 0, this.fields, 0, count);
+          System.arraycopy(values, 0, this.values, 0, count);
+          this.maxLength = maxLength;
+     }
+
+     /**
+      * @param pattern
+      *             the pattern, e.g. "yyyy-MM-dd HH:mm:ss"
+      * @param timeZone
+      *             timezone ID (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      * @return the compiled formatter
+      * @throws IllegalArgumentException
+      *              if the pattern uses unsupported letters
+      */
+     public static TimestampFormatter compile(String pattern, String timeZone) {
+          return new TimestampFormatter(pattern, ZoneOffsetTable.get(timeZone));
+     }
+
+     public String getPattern() {
+          return pattern;
+     }
+
+     public String getTimeZoneId() {
+          return table.getId();
+     }
+
+     /**
+      * @return {@code true} if this formatter writes local times of the current default timezone. The table of the
+      *         default timezone is built again when it changes, even to a timezone with the same ID.
+      */
+     boolean isInDefaultTimeZone() {
+          return table == ZoneOffsetTable.get(null);
+     }
+
+     /**
+      * @return the maximum number of characters written by a call to one of the {@code format} methods, for years up to
+      *         9999
+      */
+     public int getMaxLength() {
+          return maxLength;
+     }
+
+     /**
+      * @param millis
+      *             the instant, in milliseconds since the epoch
+      * @return the formatted instant
+      */
+     public String format(long millis) {
+          char[] chars = new char[maxLength];
+          return new String(chars, 0, format(millis, chars, 0));
+     }
+
+     /**
+      * Appends the formatted instant to the given builder.
+      *
+      * @return the builder
+      */
+     public StringBuilder format(long millis, StringBuilder builder) {
+          Day day = getDay(millis);
+          long timeOfDay = millis - day.start;
+          for (int i = 0; i < fields.length; i++) {
+               if ( fields[i] == LITERAL ) {
+                    builder.append((char) values[i]);
+               } else {
+                    int value = getField(fields[i], day, timeOfDay);
+                    for (int digits = countDigits(value); digits < values[i]; digits++) {
+                         builder.append('0');
+                    }
+                    builder.append(value);
+               }
+          }
+          return builder;
+     }
+
+     /**
+      * Writes the formatted instant in the given array.
+      *
+      * @param offset
+      *             the index of the first character to write, {@link #getMaxLength()} characters must be available
+      * @return the index following the last written character
+      */
+     public int format(long millis, char[] dst, int offset) {
+          Day day = getDay(millis);
+          long timeOfDay = millis - day.start;
+          for (int i = 0; i < fields.length; i++) {
+               if ( fields[i] == LITERAL ) {
+                    dst[offset++] = (char) values[i];
+               } else {
+                    int value = getField(fields[i], day, timeOfDay);
+                    int digits = Math.max(values[i], countDigits(value));
+                    for (int j = offset + digits - 1; j >= offset; j--) {
+                         dst[j] = (char) ('0' + value % 10);
+                         value /= 10;
+                    }
+                    offset += digits;
+               }
+          }
+          return offset;
+     }
+
+     /**
+      * Writes the formatted instant in the given buffer as ASCII, literals must be ASCII characters.
+      */
+     public void format(long millis, ByteBuffer dst) {
+          Day day = getDay(millis);
+          long timeOfDay = millis - day.start;
+          for (int i = 0; i < fields.length; i++) {
+               if ( fields[i] == LITERAL ) {
+                    dst.put((byte) values[i]);
+               } else {
+                    int value = getField(fields[i], day, timeOfDay);
+                    int digits = Math.max(values[i], countDigits(value));
+                    int position = dst.position();
+                    for (int j = position + digits - 1; j >= position; j--) {
+                         dst.put(j, (byte) ('0' + value % 10));
+                         value /= 10;
+                    }
+                    dst.position(position + digits);
+               }
+          }
+     }
+
+     private static int getField(int field, Day day, long timeOfDay) {
+          switch (field) {
+               case YEAR:
+                    return day.year;
+               case YEAR_SHORT:
+                    return (int) EpochMath.floorMod(day.year, 100);
+               case MONTH:
+                    return day.month;
+               case DAY:
+                    return day.day;
+               case HOUR:
+                    return (int) (timeOfDay / EpochMath.MILLIS_PER_HOUR);
+               case MINUTE:
+                    return (int) (timeOfDay / EpochMath.MILLIS_PER_MINUTE % 60);
+               case SECOND:
+                    return (int) (timeOfDay / EpochMath.MILLIS_PER_SECOND % 60);
+               default:
+                    return (int) (timeOfDay % EpochMath.MILLIS_PER_SECOND);
+          }
+     }
+
+     private static int countDigits(int value) {
+          int res = 1;
+          while ( value >= 10 ) {
+               value /= 10;
+               res++;
+          }
+          return res;
+     }
+
+     private Day getDay(long millis) {
+          Day day = lastDay;
+          if ( day != null && millis >= day.validFrom && millis < day.validTo ) { return day; }
+          int offset = table.getOffset(millis);
+          long days = EpochMath.floorDiv(millis + offset, EpochMath.MILLIS_PER_DAY);
+          long start = days * EpochMath.MILLIS_PER_DAY - offset;
+          long validFrom = start;
+          long validTo = start + EpochMath.MILLIS_PER_DAY;
+          // The offset may change during the day (daylight saving), only cache the part with the same offset
+          if ( table.getOffset(validFrom) != offset ) {
+               validFrom = findTransition(validFrom, millis, offset);
+          }
+          if ( table.getOffset(validTo - 1) != offset ) {
+               validTo = findTransition(millis, validTo - 1, offset);
+          }
+          day = new Day(Math.max(validFrom, start), Math.min(validTo, start + EpochMath.MILLIS_PER_DAY), start, EpochMath.civilFromDays(days));
+          lastDay = day;
+          return day;
+     }
+
+     /**
+      * @return the first instant of {@code [from, to]} at the end of which the offset is {@code offset}, given that it
+      *         is at exactly one of the two bounds
+      */
+     private long findTransition(long from, long to, int offset) {
+          boolean offsetAtTo = table.getOffset(to) == offset;
+          while ( to - from > 1 ) {
+               long middle = from + (to - from) / 2;
+               if ( (table.getOffset(middle) == offset) == offsetAtTo ) {
+                    to = middle;
+               } else {
+                    from = middle;
+               }
+          }
+          return offsetAtTo ? to : from + 1;
+     }
+}
@@ -0,0 +1,389 @@
+package quickutils.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parser of timestamps in ISO-8601 or in a fixed numeric pattern (e.g. "yyyy-MM-dd HH:mm:ss"), reading from a
+ * {@link CharSequence} or a range of ASCII bytes without allocating any object.<br/>
+ * Errors are reported with a status code instead of exceptions, so that malformed rows of large imports cost no more
+ * than valid ones. Instances are immutable and thread-safe.
+ */
+public final class TimestampParser {
+
+     /** The text was parsed, the epoch millis were stored in {@code out[0]}. */
+     public static final int OK                 = 0;
+     /** The text does not match the pattern: unexpected character, missing digits or trailing characters. */
+     public static final int ERROR_SYNTAX       = 1;
+     /**
+      * The text matches the pattern but a field is out of range (e.g. month 13 or February 30), or the year is before
+      * 1583.
+      */
+     public static final int ERROR_RANGE        = 2;
+
+     private static final int YEAR              = 0;
+     private static final int YEAR_SHORT        = 1;
+     private static final int MONTH             = 2;
+     private static final int DAY               = 3;
+     private static final int HOUR              = 4;
+     private static final int MINUTE            = 5;
+     private static final int SECOND            = 6;
+     private static final int MILLIS            = 7;
+     private static final int LITERAL           = 8;
+
+     /**
+      * First supported year: dates are computed in the Gregorian calendar, while {@link java.util.Calendar} and
+      * {@link java.text.SimpleDateFormat} use the Julian calendar before October 15, 1582.
+      */
+     private static final int MIN_YEAR          = 1583;
+
+     /** Parsers of {@link #forPattern(String)}, {@link #UNSUPPORTED} for the unsupported patterns. */
+     private static final ConcurrentHashMap<String, TimestampParser> PARSERS     = new ConcurrentHashMap<String, TimestampParser>();
+     private static final TimestampParser                            UNSUPPORTED = new TimestampParser(null, null, null, null);
+
+     private final String          pattern;
+     private final ZoneOffsetTable table;
+     /** Field of each element, {@code null} for ISO-8601. */
+     private final int[]           fields;
+     /** Number of digits of each element (0 for a variable number), or the literal character. */
+     private final int[]           values;
+
+     private TimestampParser (String pattern, ZoneOffsetTable table, int[] fields, int[] values) {
+          this.pattern = pattern;
+          this.table = table;
+          this.fields = fields;
+          this.values = values;
+     }
+
+     /**
+      * @param timeZone
+      *             timezone ID of the timestamps without offset (e.g. "GMT", "Europe/Paris"), or {@code null} for the
+      *             default timezone
+      * @return a parser of ISO-8601 extended timestamps: "yyyy-MM-dd", optionally followed by 'T' or a space and
+      *         "HH:mm", ":ss", a fraction of second of 1 to 9 digits, and 'Z' or an offset "+HH:mm", "+HHmm" or "+HH"
+      */
+     public static TimestampParser iso8601(String timeZone) {
+          return new TimestampParser("ISO-8601", ZoneOffsetTable.get(timeZone), null, null);
+     }
+
+     /**
+      * Compiles a fixed numeric pattern made of {@code y}, {@code M}, {@code d}, {@code H}, {@code m}, {@code s},
+      * {@code S} and literals. Repeated letters expect exactly that many digits (yy is read as 20yy), single letters
+      * accept a variable number of digits.
+      *
+      * @param pattern
+      *             the pattern, e.g. "dd/MM/yyyy HH:mm"
+      * @param timeZone
+      *             timezone ID of the timestamps (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      * @return the compiled parser
+      * @throws IllegalArgumentException
+      *              if the pattern uses unsupported letters
+      */
+     public static TimestampParser compile(String pattern, String timeZone) {
+          int[] fields = new int[pattern.length()];
+          int[] values = new int[pattern.length()];
+          int count = 0;
+          int i = 0;
+          while ( i < pattern.length() ) {
+               char c = pattern.charAt(i);
+               if ( c == '\'' ) {
+                    int end = pattern.indexOf('\'', i + 1);
+                    if ( end < 0 ) { throw new IllegalArgumentException("Unterminated quote in " + pattern); }
+                    if ( end == i + 1 ) {
+                         fields[count] = LITERAL;
+                         values[count++] = '\'';
+                    }
+                    for (int j = i + 1; j < end; j++) {
+                         fields[count] = LITERAL;
+                         values[count++] = pattern.charAt(j);
+                    }
+                    i = end + 1;
+                    continue;
+               }
+               int run = 1;
+               while ( i + run < pattern.length() && pattern.charAt(i + run) == c ) {
+                    run++;
+               }
+               int field;
+               switch (c) {
+                    case 'y':
+                         field = run == 2 ? YEAR_SHORT : YEAR;
+                         break;
+                    case 'M':
+                         field = MONTH;
+                         if ( run > 2 ) { throw new IllegalArgumentException("Month names are not supported: " + pattern); }
+                         break;
+                    case 'd':
+                         field = DAY;
+                         break;
+                    case 'H':
+                         field = HOUR;
+                         break;
+                    case 'm':
+                         field = MINUTE;
+                         break;
+                    case 's':
+                         field = SECOND;
+                         break;
+                    case 'S':
+                         field = MILLIS;
+                         break;
+                    default:
+                         if ( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ) { throw new IllegalArgumentException("Unsupported pattern letter '" + c + "' in " + pattern); }
+                         for (int j = 0; j < run; j++) {
+                              fields[count] = LITERAL;
+                              values[count++] = c;
+                         }
+                         i += run;
+                         continue;
+               }
+               fields[count] = field;
+               values[count++] = run == 1 ? 0 : run;
+               i += run;
+          }
+          int[] compiledFields = new int[count];
+          int[] compiledValues = new int[count];
+          System.arraycopy(fields, 0, compiledFields, 0, count);
+          System.arraycopy(values, 0, compiledValues, 0, count);
+          return new TimestampParser(pattern, ZoneOffsetTable.get(timeZone), compiledFields, compiledValues);
+     }
+
+     /**
+      * @return the cached parser of the given pattern in the default timezone, or {@code null} if the pattern is not
+      *         supported
+      */
+     static TimestampParser forPattern(String pattern) {
+          TimestampParser parser = PARSERS.get(pattern);
+          if ( parser == null || (parser != UNSUPPORTED && !parser.isInDefaultTimeZone()) ) {
+               try {
+                    parser = compile(pattern, null);
+               } catch (IllegalArgumentException e) {
+                    parser = UNSUPPORTED;
+               }
+               PARSERS.put(pattern, parser);
+          }
+          return parser == UNSUPPORTED ? null : parser;
+     }
+
+     /**
+      * @return {@code true} if the texts accepted by this parser are read the same way by a
+      *         {@link java.text.SimpleDateFormat} of the same pattern, which reads variable and two digit years relative
+      *         to the current date. Years before 1583 are rejected, so that they are left to
+      *         {@link java.text.SimpleDateFormat}.
+      */
+     boolean readsLikeSimpleDateFormat() {
+          if ( fields == null ) { return false; }
+          for (int i = 0; i < fields.length; i++) {
+               if ( fields[i] == YEAR_SHORT || (fields[i] == YEAR && values[i] == 0) ) { return false; }
+          }
+          return true;
+     }
+
+     /**
+      * @return {@code true} if this parser reads the timestamps without offset in the current default timezone. The
+      *         table of the default timezone is built again when it changes, even to a timezone with the same ID.
+      */
+     boolean isInDefaultTimeZone() {
+          return table == ZoneOffsetTable.get(null);
+     }
+
+     public String getPattern() {
+          return pattern;
+     }
+
+     public String getTimeZoneId() {
+          return table.getId();
+     }
+
+     /**
+      * Parses the whole given text.
+      *
+      * @param out
+      *             receives the epoch millis in {@code out[0]} if the text could be parsed
+      * @return {@link #OK}, {@link #ERROR_SYNTAX} or {@link #ERROR_RANGE}
+      */
+     public int parse(CharSequence text, long[] out) {
+          return parse(text, null, 0, text.length(), out);
+     }
+
+     /**
+      * Parses the characters of {@code text} from {@code start} (inclusive) to {@code end} (exclusive).
+      *
+      * @see #parse(CharSequence, long[])
+      */
+     public int parse(CharSequence text, int start, int end, long[] out) {
+          return parse(text, null, start, end, out);
+     }
+
+     /**
+      * Parses the ASCII bytes from {@code start} (inclusive) to {@code end} (exclusive), e.g. a field of a CSV buffer.
+      *
+      * @see #parse(CharSequence, long[])
+      */
+     public int parse(byte[] bytes, int start, int end, long[] out) {
+          return parse(null, bytes, start, end, out);
+     }
+
+     private int parse(CharSequence text, byte[] bytes, int start, int end, long[] out) {
+          return fields == null ? parseIso(text, bytes, start, end, out) : parsePattern(text, bytes, start, end, out);
+     }
+
+     private int parsePattern(CharSequence text, byte[] bytes, int start, int end, long[] out) {
+          int year = 1970, month = 1, day = 1, hour = 0, minute = 0, second = 0, millis = 0;
+          int position = start;
+          for (int i = 0; i < fields.length; i++) {
+               int field = fields[i];
+               if ( field == LITERAL ) {
+                    if ( position >= end || charAt(text, bytes, position) != values[i] ) { return ERROR_SYNTAX; }
+                    position++;
+                    continue;
+               }
+               // Variable width fields stop at the first non digit
+               int digits = values[i];
+               int limit = digits == 0 ? end : position + digits;
+               if ( limit > end ) { return ERROR_SYNTAX; }
+               int value = 0;
+               int from = position;
+               while ( position < limit ) {
+                    int digit = charAt(text, bytes, position) - '0';
+                    if ( digit < 0 || digit > 9 ) {
+                         if ( digits != 0 ) { return ERROR_SYNTAX; }
+                         break;
+                    }
+                    if ( value > 99999999 ) { return ERROR_RANGE; }
+                    value = value * 10 + digit;
+                    position++;
+               }
+               if ( position == from ) { return ERROR_SYNTAX; }
+               switch (field) {
+                    case YEAR:
+                         year = value;
+                         break;
+                    case YEAR_SHORT:
+                         year = 2000 + value;
+                         break;
+                    case MONTH:
+                         month = value;
+                         break;
+                    case DAY:
+                         day = value;
+                         break;
+                    case HOUR:
+                         hour = value;
+                         break;
+                    case MINUTE:
+                         minute = value;
+                         break;
+                    case SECOND:
+                         second = value;
+                         break;
+                    default:
+                         // S is a number of milliseconds, like in SimpleDateFormat
+                         millis = value;
+                         break;
+               }
+          }
+          if ( position != end ) { return ERROR_SYNTAX; }
+          if ( millis > 999 ) { return ERROR_RANGE; }
+          return toEpoch(year, month, day, hour, minute, second, millis, false, 0, out);
+     }
+
+     private int parseIso(CharSequence text, byte[] bytes, int start, int end, long[] out) {
+          int p = start;
+          if ( end - p < 10 || charAt(text, bytes, p + 4) != '-' || charAt(text, bytes, p + 7) != '-' ) { return ERROR_SYNTAX; }
+          int year = digits(text, bytes, p, 4);
+          int month = digits(text, bytes, p + 5, 2);
+          int day = digits(text, bytes, p + 8, 2);
+          if ( year < 0 || month < 0 || day < 0 ) { return ERROR_SYNTAX; }
+          p += 10;
+          int hour = 0, minute = 0, second = 0, millis = 0;
+          if ( p < end ) {
+               char separator = charAt(text, bytes, p);
+               if ( separator != 'T' && separator != ' ' ) { return ERROR_SYNTAX; }
+               if ( end - p < 6 || charAt(text, bytes, p + 3) != ':' ) { return ERROR_SYNTAX; }
+               hour = digits(text, bytes, p + 1, 2);
+               minute = digits(text, bytes, p + 4, 2);
+               if ( hour < 0 || minute < 0 ) { return ERROR_SYNTAX; }
+               p += 6;
+               if ( p < end && charAt(text, bytes, p) == ':' ) {
+                    second = p + 3 <= end ? digits(text, bytes, p + 1, 2) : -1;
+                    if ( second < 0 ) { return ERROR_SYNTAX; }
+                    p += 3;
+                    if ( p < end && (charAt(text, bytes, p) == '.' || charAt(text, bytes, p) == ',') ) {
+                         p++;
+                         int from = p;
+                         int scale = 100;
+                         while ( p < end && p - from < 9 ) {
+                              int digit = charAt(text, bytes, p) - '0';
+                              if ( digit < 0 || digit > 9 ) {
+                                   break;
+                              }
+                              // Digits beyond milliseconds are dropped
+                              millis += digit * scale;
+                              scale /= 10;
+                              p++;
+                         }
+                         if ( p == from ) { return ERROR_SYNTAX; }
+                    }
+               }
+          }
+          boolean hasOffset = false;
+          int offset = 0;
+          if ( p < end ) {
+               char c = charAt(text, bytes, p);
+               if ( c == 'Z' ) {
+                    hasOffset = true;
+                    p++;
+               } else if ( c == '+' || c == '-' ) {
+                    int offsetHours = p + 3 <= end ? digits(text, bytes, p + 1, 2) : -1;
+                    if ( offsetHours < 0 ) { return ERROR_SYNTAX; }
+                    p += 3;
+                    int offsetMinutes = 0;
+                    if ( p < end ) {
+                         if ( charAt(text, bytes, p) == ':' ) {
+                              p++;
+                         }
+                         offsetMinutes = p + 2 <= end ? digits(text, bytes, p, 2) : -1;
+                         if ( offsetMinutes < 0 ) { return ERROR_SYNTAX; }
+                         p += 2;
+                    }
+                    if ( offsetHours > 18 || offsetMinutes > 59 ) { return ERROR_RANGE; }
+                    offset = (int) (offsetHours * EpochMath.MILLIS_PER_HOUR + offsetMinutes * EpochMath.MILLIS_PER_MINUTE);
+                    if ( c == '-' ) {
+                         offset = -offset;
+                    }
+                    hasOffset = true;
+               }
+          }
+          if ( p != end ) { return ERROR_SYNTAX; }
+          return toEpoch(year, month, day, hour, minute, second, millis, hasOffset, offset, out);
+     }
+
+     private int toEpoch(int year, int month, int day, int hour, int minute, int second, int millis, boolean hasOffset, int offset, long[] out) {
+          if ( year < MIN_YEAR ) { return ERROR_RANGE; }
+          if ( month < 1 || month > 12 || day < 1 || day > EpochMath.daysInMonth(year, month) ) { return ERROR_RANGE; }
+          if ( hour > 23 || minute > 59 || second > 59 ) { return ERROR_RANGE; }
+          long local = EpochMath.daysFromCivil(year, month, day) * EpochMath.MILLIS_PER_DAY + hour * EpochMath.MILLIS_PER_HOUR + minute * EpochMath.MILLIS_PER_MINUTE + second * EpochMath.MILLIS_PER_SECOND + millis;
+          if ( !hasOffset ) {
+               offset = table.getOffsetFromLocal(local);
+          }
+          out[0] = local - offset;
+          return OK;
+     }
+
+     /**
+      * @return the value of {@code count} digits starting at {@code position}, or -1 if one of them is not a digit
+      */
+     private static int digits(CharSequence text, byte[] bytes, int position, int count) {
+          int res = 0;
+          for (int i = position; i < position + count; i++) {
+               int digit = charAt(text, bytes, i) - '0';
+               if ( digit < 0 || digit > 9 ) { return -1; }
+               res = res * 10 + digit;
+          }
+          return res;
+     }
+
+     private static char charAt(CharSequence text, byte[] bytes, int position) {
+          return bytes != null ? (char) (bytes[position] & 0xff) : text.charAt(position);
+     }
+}
@@ -0,0 +1,176 @@
+package quickutils.core;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable table of the offset transitions of a timezone over a range of years, so that offsets are found by a binary
+ * search over primitive arrays instead of going through {@link TimeZone}, and can be shared between threads.<br/>
+ * Instants outside of the range fall back to {@link TimeZone#getOffset(long)}.
+ */
+final class ZoneOffsetTable {
+
+     /** Default range of the tables: 1970-01-01 to 2038-01-01 UTC. */
+     static final long                                          DEFAULT_FROM = 0L;
+     static final long                                          DEFAULT_TO   = 2145916800000L;
+
+     private static final ConcurrentHashMap<String, ZoneOffsetTable> TABLES   = new ConcurrentHashMap<String, ZoneOffsetTable>();
+     private static volatile DefaultTable                        defaultTable;
+
+     /** Table of the default timezone, with the instance of {@link DateFormatCache#getDefaultTimeZone()} it was built from. */
+     private static final class DefaultTable {
+
+          final TimeZone        zone;
+          final ZoneOffsetTable table;
+
+          DefaultTable (TimeZone zone, ZoneOffsetTable table) {
+               this.zone = zone;
+               this.table = table;
+          }
+     }
+
+     private final TimeZone                                     timeZone;
+     private final long                                         from;
+     private final long                                         to;
+     /** Instants of the transitions within the range, increasing. */
+     private final long[]                                       transitions;
+     /** {@code offsets[i + 1]} is the offset from {@code transitions[i]}, {@code offsets[0]} the offset at {@code from}. */
+     private final int[]                                        offsets;
+
+     /**
+      * Builds the table by sampling the offset once per day and searching each change down to the millisecond.
+      *
+      * @param from
+      *             first instant of the range
+      * @param to
+      *             end of the range, exclusive
+      */
+     ZoneOffsetTable (TimeZone timeZone, long from, long to) {
+          this.timeZone = (TimeZone) timeZone.clone();
+          this.from = from;
+          this.to = to;
+          long[] transitions = new long[16];
+          int[] offsets = new int[17];
+          int count = 0;
+          int offset = timeZone.getOffset(from);
+          offsets[0] = offset;
+          for (long t = from; t < to;) {
+               long next = Math.min(t + EpochMath.MILLIS_PER_DAY, to - 1);
+               int nextOffset = timeZone.getOffset(next);
+               if ( nextOffset != offset ) {
+                    // Binary search of the first instant with the new offset
+                    long low = t, high = next;
+                    while ( high - low > 1 ) {
+                         long middle = low + (high - low) / 2;
+                         if ( timeZone.getOffset(middle) == offset ) {
+                              low = middle;
+                         } else {
+                              high = middle;
+                         }
+                    }
+                    if ( count == transitions.length ) {
+                         transitions = Arrays.copyOf(transitions, count * 2);
+                         offsets = Arrays.copyOf(offsets, count * 2 + 1);
+                    }
+                    transitions[count] = high;
+                    offset = timeZone.getOffset(high);
+                    offsets[++count] = offset;
+                    t = high;
+               } else {
+                    if ( next == to - 1 ) {
+                         break;
+                    }
+                    t = next;
+               }
+          }
+          this.transitions = Arrays.copyOf(transitions, count);
+          this.offsets = Arrays.copyOf(offsets, count + 1);
+     }
+
+     /**
+      * @param timeZoneId
+      *             timezone ID (e.g. "GMT", "Europe/Paris"), or {@code null} for the default timezone
+      * @return the cached table of the timezone over the default range, built on first use
+      */
+     static ZoneOffsetTable get(String timeZoneId) {
+          if ( timeZoneId == null ) { return getDefault(); }
+          ZoneOffsetTable table = TABLES.get(timeZoneId);
+          if ( table == null ) {
+               table = new ZoneOffsetTable(TimeZone.getTimeZone(timeZoneId), DEFAULT_FROM, DEFAULT_TO);
+               ZoneOffsetTable previous = TABLES.putIfAbsent(timeZoneId, table);
+               if ( previous != null ) {
+                    table = previous;
+               }
+          }
+          return table;
+     }
+
+     /**
+      * The default timezone is not resolved by ID, a custom default timezone (e.g. a {@link java.util.SimpleTimeZone}
+      * given to {@link TimeZone#setDefault(TimeZone)}) may have an ID unknown to {@link TimeZone#getTimeZone(String)}.
+      *
+      * @return the table of the default timezone, built again when it changes
+      */
+     private static ZoneOffsetTable getDefault() {
+          TimeZone zone = DateFormatCache.getDefaultTimeZone();
+          DefaultTable current = defaultTable;
+          if ( current == null || current.zone != zone ) {
+               current = new DefaultTable(zone, new ZoneOffsetTable(zone, DEFAULT_FROM, DEFAULT_TO));
+               defaultTable = current;
+          }
+          return current.table;
+     }
+
+     String getId() {
+          return timeZone.getID();
+     }
+
+     /**
+      * @return the offset from UTC at the given instant, in milliseconds
+      */
+     int getOffset(long millis) {
+          if ( millis < from || millis >= to ) { return timeZone.getOffset(millis); }
+          return offsets[indexOf(millis) + 1];
+     }
+
+     /**
+      * @return the offset to subtract from the given local time to get the instant, resolving daylight saving overlaps
+      *         to the later instant and gaps with the offset before the transition, like {@link java.util.Calendar}
+      */
+     int getOffsetFromLocal(long localMillis) {
+          int guess = getOffset(localMillis - timeZone.getRawOffset());
+          int offset = getOffset(localMillis - guess);
+          if ( offset != guess && getOffset(localMillis - offset) != offset ) {
+               offset = Math.min(guess, offset);
+          }
+          return offset;
+     }
+
+     /**
+      * @return the first transition after the given instant, or {@link Long#MAX_VALUE} if there is none until the end
+      *         of the table
+      */
+     long getNextTransition(long millis) {
+          if ( millis >= to ) { return Long.MAX_VALUE; }
+          if ( millis < from ) { return transitions.length > 0 ? transitions[0] : Long.MAX_VALUE; }
+          int index = indexOf(millis) + 1;
+          return index < transitions.length ? transitions[index] : Long.MAX_VALUE;
+     }
+
+     /**
+      * @return the index of the last transition at or before the given instant, -1 if there is none
+      */
+     private int indexOf(long millis) {
+          int low = 0, high = transitions.length - 1;
+          while ( low <= high ) {
+               int middle = (low + high) >>> 1;
+               if ( transitions[middle] <= millis ) {
+                    low = middle + 1;
+               } else {
+                    high = middle - 1;
+               }
+          }
+          return high;
+     }
+}
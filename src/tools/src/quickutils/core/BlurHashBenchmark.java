@@ -0,0 +1,82 @@
+package quickutils.core;
+
+import java.util.Random;
+
+
+/**
+ * Desktop JVM benchmark of {@link BlurHash}, which has no Android dependency. It is not part of the library, run it
+ * from the project root with:
+ *
+ * <pre>
+ * javac -d build/tools src/main/src/quickutils/core/BlurHash.java src/tools/src/quickutils/core/BlurHashBenchmark.java
+ * java -cp build/tools quickutils.core.BlurHashBenchmark
+ * </pre>
+ */
+public final class BlurHashBenchmark {
+
+	private static final int	SIZE		= 32;
+	private static final int	WARMUP		= 20000;
+	private static final int	ITERATIONS	= 100000;
+
+	/** Keeps the results alive so that the JIT does not drop the work. */
+	private static int			sink;
+
+	private BlurHashBenchmark() {}
+
+	public static void main(String[] args) {
+		int[] image = createImage(SIZE, SIZE);
+		String hash = BlurHash.encode(image, SIZE, SIZE, 4, 3);
+		int[] pixels = new int[SIZE * SIZE];
+		System.out.println("hash=" + hash);
+		for (int round = 0; round < 3; round++) {
+			System.out.println("encode " + SIZE + "x" + SIZE + " 4x3: " + String.format("%.1f", timeEncode(image, WARMUP, ITERATIONS)) + "us");
+			System.out.println("decode " + SIZE + "x" + SIZE + ": " + String.format("%.1f", timeDecode(hash, pixels, WARMUP, ITERATIONS)) + "us");
+		}
+		System.out.println("checksum=" + sink);
+	}
+
+	/**
+	 * Smooth gradients with some noise, closer to a photo than random pixels.
+	 */
+	private static int[] createImage(int width, int height) {
+		Random random = new Random(42);
+		int[] image = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = Math.min(255, x * 255 / width + random.nextInt(16));
+				int g = Math.min(255, y * 255 / height + random.nextInt(16));
+				int b = Math.min(255, (x + y) * 127 / (width + height) + random.nextInt(16));
+				image[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @return The average time of an encode, in microseconds.
+	 */
+	private static double timeEncode(int[] image, int warmup, int iterations) {
+		for (int i = 0; i < warmup; i++) {
+			sink += BlurHash.encode(image, SIZE, SIZE, 4, 3).length();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink += BlurHash.encode(image, SIZE, SIZE, 4, 3).length();
+		}
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+
+	/**
+	 * @return The average time of a decode, in microseconds.
+	 */
+	private static double timeDecode(String hash, int[] pixels, int warmup, int iterations) {
+		for (int i = 0; i < warmup; i++) {
+			sink += BlurHash.decode(hash, SIZE, SIZE, 1, pixels)[i & (SIZE * SIZE - 1)];
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink += BlurHash.decode(hash, SIZE, SIZE, 1, pixels)[i & (SIZE * SIZE - 1)];
+		}
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+}